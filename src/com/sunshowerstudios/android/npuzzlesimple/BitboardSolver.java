@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+/*
+ * IDA* for 4x4 boards packed into one long, four bits per
+ * position, position i in bits 4i to 4i + 3. A move is an
+ * xor of the moved piece's nibble into two positions, and
+ * the long itself is the hash and equality of a board.
+ *
+ * A transposed copy is kept alongside, so every row and
+ * every column is a 16 bit word, and linear conflicts are
+ * looked up in per line tables instead of recounted.
+ * With a PatternDatabase every node looks up all of its
+ * patterns afresh, so PuzzleSolver, which tracks them move
+ * by move, keeps database solves on its own search.
+ * Each solve records its SolverStats, and stops early on the
+ * node budget, a CancellationToken or a time limit.
+ */
+
+public class BitboardSolver
+{
+	public static final long GOAL = 0xFEDCBA9876543210L;	// Piece i at position i, blank (15) last.
+	private static final int WIDTH = 4, SIZE = 16, BLANK = 15;
+
+	private static final int[] NEIGHBOURS = PuzzleMoves.neighbours(WIDTH);			// Piece position per blank & move.
+	private static final byte[] DISTANCE = new byte[SIZE * SIZE];					// Manhattan of [piece * 16 + position].
+	private static final byte[][] ROW_CONFLICTS = new byte[WIDTH][],				// Conflict of each row word,
+								  COL_CONFLICTS = new byte[WIDTH][];				// and of each column word.
+
+	static
+	{
+		for (int piece = 0; piece < BLANK; piece++)
+			for (int position = 0; position < SIZE; position++)
+				DISTANCE[piece * SIZE + position] = (byte) (Math.abs(piece / WIDTH - position / WIDTH)
+						+ Math.abs(piece % WIDTH - position % WIDTH));
+
+		for (int line = 0; line < WIDTH; line++)
+		{
+			ROW_CONFLICTS[line] = lineTable(line, true);
+			COL_CONFLICTS[line] = lineTable(line, false);
+		}
+	}
+
+	private int[] path = new int[128];
+	private int length, nextBound;
+	private long nodes, maxNodes = Long.MAX_VALUE;
+	private long evaluations, tableLookups;
+	private boolean exhausted;
+	private PatternDatabase database;
+	private final int[] positions = new int[SIZE];
+	private final SolverStats stats = new SolverStats();
+	private SolverStats recording;							// Stats of the current search, maybe a PuzzleSolver's.
+	private CancellationToken token;
+	private long timeLimit;
+	private SolverStats.Listener listener;
+
+	public void setPatternDatabase(PatternDatabase database)
+	{
+		this.database = database;
+	}
+
+	public void setMaxNodes(long max)
+	{
+		maxNodes = max;
+	}
+
+	public void setCancellationToken(CancellationToken token)
+	{
+		this.token = token;
+	}
+
+	// Milliseconds per solve, 0 for none.
+	public void setTimeLimit(long millis)
+	{
+		timeLimit = millis;
+	}
+
+	public void setStatsListener(SolverStats.Listener listener)
+	{
+		this.listener = listener;
+	}
+
+	// Statistics of the last, or current, solve() call.
+	public SolverStats getStats()
+	{
+		return stats;
+	}
+
+	public long getNodesExpanded()
+	{
+		return nodes;
+	}
+
+	// ====================
+	//       Encoding
+	// ====================
+
+	// Packs a 4x4 board in row order into a long.
+	public static long pack(int[] board)
+	{
+		long packed = 0;
+		for (int i = 0; i < SIZE; i++)
+			packed |= ((long) board[i]) << (i << 2);
+
+		return packed;
+	}
+
+	public static int[] unpack(long packed, int[] board)
+	{
+		for (int i = 0; i < SIZE; i++)
+			board[i] = (int) (packed >>> (i << 2)) & 0xF;
+
+		return board;
+	}
+
+	// Piece at position.
+	public static int pieceAt(long board, int position)
+	{
+		return (int) (board >>> (position << 2)) & 0xF;
+	}
+
+	public static int findBlank(long board)
+	{
+		for (int i = 0; i < SIZE; i++)
+			if (pieceAt(board, i) == BLANK)
+				return i;
+
+		return -1;
+	}
+
+	// Slides the piece at from into the blank at to.
+	public static long move(long board, int from, int to)
+	{
+		final long flip = (long) (pieceAt(board, from) ^ BLANK);
+		return board ^ (flip << (to << 2)) ^ (flip << (from << 2));
+	}
+
+	// Same board with rows and columns swapped.
+	public static long transpose(long board)
+	{
+		long transposed = 0;
+		for (int i = 0; i < SIZE; i++)
+			transposed |= ((long) pieceAt(board, i)) << (transposed(i) << 2);
+
+		return transposed;
+	}
+
+	private static int transposed(int position)
+	{
+		return ((position & 3) << 2) | (position >> 2);
+	}
+
+	// ====================
+	//      Heuristic
+	// ====================
+
+	// Manhattan distance plus linear conflict of board.
+	public static int estimate(long board)
+	{
+		final long transposed = transpose(board);
+		int estimate = 0;
+
+		for (int i = 0; i < SIZE; i++)
+		{
+			final int piece = pieceAt(board, i);
+			if (piece != BLANK) estimate += DISTANCE[piece * SIZE + i];
+		}
+
+		for (int line = 0; line < WIDTH; line++)
+			estimate += ROW_CONFLICTS[line][word(board, line)] + COL_CONFLICTS[line][word(transposed, line)];
+
+		return estimate;
+	}
+
+	private static int word(long board, int line)
+	{
+		return (int) (board >>> (line << 4)) & 0xFFFF;
+	}
+
+	// Conflict of every word of one row (or column), the nibbles of
+	// a word being the pieces in order along the line.
+	private static byte[] lineTable(int line, boolean row)
+	{
+		final byte[] table = new byte[1 << 16];
+		final int[] goals = new int[WIDTH], longest = new int[WIDTH];
+
+		for (int word = 0; word < table.length; word++)
+		{
+			int count = 0, best = 0;
+			for (int p = 0; p < WIDTH; p++)
+			{
+				final int piece = (word >>> (p << 2)) & 0xF;
+				if (piece == BLANK) continue;
+				if (row && piece / WIDTH == line)
+					goals[count++] = piece % WIDTH;
+				else if (!row && piece % WIDTH == line)
+					goals[count++] = piece / WIDTH;
+			}
+
+			for (int i = 0; i < count; i++)
+			{
+				longest[i] = 1;
+				for (int j = 0; j < i; j++)
+					if (goals[j] < goals[i] && longest[j] + 1 > longest[i])
+						longest[i] = longest[j] + 1;
+				if (longest[i] > best)
+					best = longest[i];
+			}
+
+			table[word] = (byte) (2 * (count - best));
+		}
+
+		return table;
+	}
+
+	// ====================
+	//        Search
+	// ====================
+
+	// Returns an optimal list of moves that solves the 4x4 start,
+	// or null if a limit stopped the search. start must be solvable.
+	public int[] solve(int[] start)
+	{
+		stats.start(maxNodes, token, timeLimit, listener);
+		final int[] moves = solve(start, stats);
+		stats.finish(SolverStats.SOLVED);
+
+		return moves;
+	}
+
+	// Searches start within the limits of stats, which the caller
+	// has started and will finish, recording each iteration in it.
+	int[] solve(int[] start, SolverStats stats)
+	{
+		nodes = evaluations = tableLookups = 0;
+		exhausted = false;
+		recording = stats;
+
+		final long board = pack(start);
+		final long transposed = transpose(board);
+		final int blank = findBlank(board),
+				  estimate = estimate(board);
+
+		int bound = bound(board, estimate);
+		while (true)
+		{
+			nextBound = Integer.MAX_VALUE;
+			final boolean found = search(board, transposed, blank, estimate, 0, bound, PuzzleMoves.NONE);
+			stats.endIteration(bound, nodes, evaluations, tableLookups);
+			if (found)
+			{
+				final int[] moves = new int[length];
+				System.arraycopy(path, 0, moves, 0, length);
+				return moves;
+			}
+
+			if (exhausted) return null;
+			bound = nextBound;
+		}
+	}
+
+	private boolean search(long board, long transposed, int blank, int estimate, int depth, int bound, int lastMove)
+	{
+		final int cost = depth + bound(board, estimate);
+		++evaluations;
+		if (cost > bound)
+		{
+			if (cost < nextBound) nextBound = cost;
+			return false;
+		}
+
+		if (board == GOAL)
+		{
+			length = depth;
+			return true;
+		}
+
+		if (++nodes >= recording.nextCheck && recording.isStopped(nodes))
+		{
+			exhausted = true;
+			return false;
+		}
+
+		if (depth == path.length)
+		{
+			final int[] grown = new int[path.length * 2];
+			System.arraycopy(path, 0, grown, 0, path.length);
+			path = grown;
+		}
+
+		final int blankRow = blank >> 2, blankCol = blank & 3;
+		for (int move = 0; move < PuzzleMoves.COUNT; move++)
+		{
+			if (move == PuzzleMoves.opposite(lastMove)) continue;
+
+			final int from = NEIGHBOURS[(blank << 2) | move];
+			if (from < 0) continue;
+
+			final int piece = pieceAt(board, from),
+					  fromRow = from >> 2, fromCol = from & 3;
+			final long flip = (long) (piece ^ BLANK),
+					   next = board ^ (flip << (blank << 2)) ^ (flip << (from << 2)),
+					   nextTransposed = transposed ^ (flip << (transposed(blank) << 2))
+							   ^ (flip << (transposed(from) << 2));
+
+			// Only the lines through from and blank change.
+			int nextEstimate = estimate + DISTANCE[piece * SIZE + blank] - DISTANCE[piece * SIZE + from];
+			if (fromRow == blankRow)
+			{
+				nextEstimate += ROW_CONFLICTS[fromRow][word(next, fromRow)] - ROW_CONFLICTS[fromRow][word(board, fromRow)]
+					+ COL_CONFLICTS[fromCol][word(nextTransposed, fromCol)] - COL_CONFLICTS[fromCol][word(transposed, fromCol)]
+					+ COL_CONFLICTS[blankCol][word(nextTransposed, blankCol)] - COL_CONFLICTS[blankCol][word(transposed, blankCol)];
+			}
+			else
+			{
+				nextEstimate += COL_CONFLICTS[fromCol][word(nextTransposed, fromCol)] - COL_CONFLICTS[fromCol][word(transposed, fromCol)]
+					+ ROW_CONFLICTS[fromRow][word(next, fromRow)] - ROW_CONFLICTS[fromRow][word(board, fromRow)]
+					+ ROW_CONFLICTS[blankRow][word(next, blankRow)] - ROW_CONFLICTS[blankRow][word(board, blankRow)];
+			}
+
+			path[depth] = move;
+			if (search(next, nextTransposed, from, nextEstimate, depth + 1, bound, move)) return true;
+			if (exhausted) return false;
+		}
+
+		return false;
+	}
+
+	// The larger of estimate and the pattern database's value.
+	private int bound(long board, int estimate)
+	{
+		if (database == null || estimate == 0) return estimate;
+
+		for (int i = 0; i < SIZE; i++)
+			positions[pieceAt(board, i)] = i;
+
+		final int stored = database.estimate(positions);
+		tableLookups += database.getLookups() * database.getPatternCount();
+		return (stored > estimate) ? stored : estimate;
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+/*
+ * Asks a solve on another thread to stop. A solver given
+ * one reads it every SolverStats.CHECK_INTERVAL nodes and
+ * returns null once it is cancelled. A token stays
+ * cancelled, so use a new one for each solve to be stopped
+ * on its own.
+ */
+
+public class CancellationToken
+{
+	private volatile boolean isCancelled;
+
+	public void cancel()
+	{
+		isCancelled = true;
+	}
+
+	public boolean isCancelled()
+	{
+		return isCancelled;
+	}
+}
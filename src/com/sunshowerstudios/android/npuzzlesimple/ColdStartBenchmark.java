@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+// Java packages
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Android packages
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+import android.view.View;
+
+/*
+ * Times NPuzzleView from init() to its first frame, and to
+ * the first frame with pieces a player can tap, over a
+ * number of boards created one after another. The first
+ * run of a process is the cold one, and is reported apart
+ * from the median of the rest. Not started by the launcher:
+ *
+ * adb shell am start -W -n com.sunshowerstudios.android.npuzzlesimple/.ColdStartBenchmark --ei runs 20
+ * adb logcat -s ColdStartBenchmark
+ *
+ * With --ez cache true the boards use a TileCache, emptied
+ * first, so only the first run cuts its pieces.
+ *
+ * am start -W also reports the time of the whole launch.
+ */
+
+public class ColdStartBenchmark extends Activity implements PuzzleMetrics.Listener
+{
+	private static final String TAG = "ColdStartBenchmark",
+								EXTRA_RUNS = "runs",
+								EXTRA_CACHE = "cache";
+	private static final int DEFAULT_RUNS = 10;
+	private static final long CACHE_BYTES = 16 * 1024 * 1024;
+
+	private final Handler mHandler = new Handler();
+	private long[] mFirstFrames, mInteractive;				// Nanoseconds of each run.
+	private int mRun;
+	private NPuzzleView mGame;
+	private TileCache mCache;								// Null unless asked for.
+
+	@Override
+	public void onCreate(Bundle savedInstanceState)
+	{
+		super.onCreate(savedInstanceState);
+
+		final int runs = Math.max(1, getIntent().getIntExtra(EXTRA_RUNS, DEFAULT_RUNS));
+		mFirstFrames = new long[runs];
+		mInteractive = new long[runs];
+		if (getIntent().getBooleanExtra(EXTRA_CACHE, false))
+		{
+			try
+			{
+				mCache = TileCache.open(new File(getCacheDir(), "benchmark-tiles"), CACHE_BYTES);
+				mCache.clear();
+			}
+			catch (IOException e)
+			{
+				Log.w(TAG, "No tile cache", e);
+			}
+		}
+		startRun();
+	}
+
+	// Shows a new board, as the layout of HomeActivity does.
+	private void startRun()
+	{
+		final PuzzleMetrics metrics = new PuzzleMetrics();
+		metrics.setListener(this);
+
+		mGame = new NPuzzleView(this);
+		mGame.setMetrics(metrics);
+		mGame.setTileCache(mCache);
+		mGame.setImageResource(R.drawable.monkfish);
+		mGame.mix(true);
+		setContentView(mGame);
+	}
+
+	private final Runnable finishRun = new Runnable()
+	{
+		public void run()
+		{
+			Log.d(TAG, "run " + mRun + ": first frame " + mFirstFrames[mRun] / 1000
+					+ "us, interactive " + mInteractive[mRun] / 1000 + "us\n" + mGame.getMetrics());
+
+			// Detach the board, releasing its pieces, before the next one.
+			setContentView(new View(ColdStartBenchmark.this));
+			mGame = null;
+
+			if (++mRun < mFirstFrames.length)
+			{
+				startRun();
+				return;
+			}
+
+			Log.d(TAG, "cold: first frame " + mFirstFrames[0] / 1000 + "us, interactive " + mInteractive[0] / 1000 + "us");
+			if (mRun > 1)
+				Log.d(TAG, "warm median of " + (mRun - 1) + ": first frame " + median(mFirstFrames) / 1000
+						+ "us, interactive " + median(mInteractive) / 1000 + "us");
+			finish();
+		}
+	};
+
+	// Median of every run but the first.
+	private static long median(long[] runs)
+	{
+		final long[] warm = new long[runs.length - 1];
+		System.arraycopy(runs, 1, warm, 0, warm.length);
+		Arrays.sort(warm);
+
+		return warm[warm.length / 2];
+	}
+
+	// ====================
+	//   Metrics Listener
+	// ====================
+
+	// Called on the UI thread for both startup timings.
+	public void onTiming(int metric, long nanos)
+	{
+		if (metric == PuzzleMetrics.FIRST_FRAME)
+			mFirstFrames[mRun] = nanos;
+		else if (metric == PuzzleMetrics.INTERACTIVE)
+		{
+			mInteractive[mRun] = nanos;
+			mHandler.post(finishRun); // Not from within a draw.
+		}
+	}
+
+	public void onBitmapAllocated(int bytes) {}
+
+	public void onFramesDropped(int frames) {}
+}
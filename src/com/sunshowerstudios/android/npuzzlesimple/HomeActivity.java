@@ -3,6 +3,9 @@ package com.sunshowerstudios.android.npuzzlesimple;
 import com.sunshowerstudios.android.npuzzlesimple.NPuzzleView;
 import com.sunshowerstudios.android.npuzzlesimple.NPuzzleView.OnSolveListener;
 
+import java.io.File;
+import java.io.IOException;
+
 import android.app.Activity;
 import android.os.Bundle;
 import android.widget.Toast;
@@ -11,6 +14,7 @@ import android.widget.Toast;
 
 public class HomeActivity extends Activity implements OnSolveListener
 {
+    private static final long TILE_CACHE_BYTES = 16 * 1024 * 1024;
     private NPuzzleView mGame;
 	
     @Override
@@ -24,6 +28,13 @@ public class HomeActivity extends Activity implements OnSolveListener
         
         mGame.setOnSolveListener(this); // Attach onSolveListener.
         
+        // Keep the pieces between launches, the board is cut after onCreate.
+        try
+        {
+        	mGame.setTileCache(TileCache.open(new File(getCacheDir(), "tiles"), TILE_CACHE_BYTES));
+        }
+        catch (IOException e) {} // Cut them every time.
+        
         // Other examples include :
         // mGame.reload();
         // mGame.setDifficulty();
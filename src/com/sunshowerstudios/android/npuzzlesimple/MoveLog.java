@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+// Java packages
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * Record of the moves of one game, two bits per move (see
+ * PuzzleMoves), 32 moves to a long. A cursor separates the
+ * moves played from those undone, so undo and redo are O(1)
+ * and a new move drops whatever was undone.
+ *
+ * The serialized form is a magic number, the move count as
+ * a long and then the moves four to a byte, low bits first,
+ * and can be read back whole, or one move at a time with a
+ * Reader.
+ */
+
+public class MoveLog
+{
+	public static final int MAGIC = 0x4e504d4c;			// "NPML"
+	private static final int CHUNK_BYTES = 4096;			// Read at a time, a multiple of 8.
+
+	private long[] words = new long[16];
+	private int size, cursor;								// Moves recorded, and moves played.
+
+	// Records move at the cursor, dropping any undone moves.
+	public void append(int move)
+	{
+		if ((cursor >> 5) == words.length)
+		{
+			final long[] grown = new long[words.length * 2];
+			System.arraycopy(words, 0, grown, 0, words.length);
+			words = grown;
+		}
+
+		final int shift = (cursor & 31) << 1;
+		words[cursor >> 5] = (words[cursor >> 5] & ~(3L << shift)) | ((long) move << shift);
+		size = ++cursor;
+	}
+
+	// Steps back over the last played move and returns it, or
+	// PuzzleMoves.NONE. Undo it by playing its opposite.
+	public int undo()
+	{
+		if (cursor == 0) return PuzzleMoves.NONE;
+		return get(--cursor);
+	}
+
+	// Steps forward over the next undone move and returns it, or PuzzleMoves.NONE.
+	public int redo()
+	{
+		if (cursor == size) return PuzzleMoves.NONE;
+		return get(cursor++);
+	}
+
+	// Move i, counting from the first.
+	public int get(int i)
+	{
+		return (int) (words[i >> 5] >>> ((i & 31) << 1)) & 3;
+	}
+
+	// Number of moves played, ie. not undone.
+	public int getPosition()
+	{
+		return cursor;
+	}
+
+	// Number of moves recorded, played or undone.
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean canUndo()
+	{
+		return (cursor > 0);
+	}
+
+	public boolean canRedo()
+	{
+		return (cursor < size);
+	}
+
+	public void clear()
+	{
+		size = cursor = 0;
+	}
+
+	// The packed moves, live, 32 to a long, low bits first.
+	public long[] getWords()
+	{
+		return words;
+	}
+
+	// ====================
+	//    Serialization
+	// ====================
+
+	// Writes the played moves, not those undone.
+	public void writeTo(OutputStream stream) throws IOException
+	{
+		final DataOutputStream out = new DataOutputStream(stream);
+		out.writeInt(MAGIC);
+		out.writeLong(cursor);
+
+		for (int i = 0; i < cursor; i += 4)
+		{
+			int bits = 0;
+			for (int j = 0; j < 4 && i + j < cursor; j++)
+				bits |= get(i + j) << (j << 1);
+			out.write(bits);
+		}
+
+		out.flush();
+	}
+
+	// Reads a whole log written by writeTo.
+	public static MoveLog readFrom(InputStream in) throws IOException
+	{
+		final MoveLog log = new MoveLog();
+		log.read(in);
+		return log;
+	}
+
+	// Replaces this log with one written by writeTo. The bytes
+	// are already in the order of words, so they are read in
+	// chunks and copied eight at a time. Words only grow as
+	// moves arrive, so a count larger than the input throws
+	// IOException rather than allocating for it, and leaves
+	// this log as it was.
+	public void read(InputStream stream) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(stream);
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a move log");
+
+		final long count = in.readLong();
+		if (count < 0 || count > Integer.MAX_VALUE - 31)
+			throw new IOException("Bad move count " + count);
+
+		final int byteCount = ((int) count + 3) >> 2;
+		final byte[] chunk = new byte[CHUNK_BYTES];
+		final ByteBuffer buffer = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN);
+		long[] read = new long[16];
+		for (int done = 0; done < byteCount; )
+		{
+			final int n = Math.min(CHUNK_BYTES, byteCount - done);
+			try
+			{
+				in.readFully(chunk, 0, n);
+			}
+			catch (EOFException e)
+			{
+				throw new IOException("Move log ends before " + count + " moves");
+			}
+			for (int i = n; i < ((n + 7) & ~7); i++)
+				chunk[i] = 0;
+
+			final int offset = done >> 3,
+					  length = (n + 7) >> 3;
+			if (offset + length > read.length)
+			{
+				final long[] grown = new long[Math.max(read.length * 2, offset + length)];
+				System.arraycopy(read, 0, grown, 0, offset);
+				read = grown;
+			}
+			buffer.clear();
+			buffer.asLongBuffer().get(read, offset, length);
+			done += n;
+		}
+
+		words = read;
+		size = cursor = (int) count;
+	}
+
+	// Streams the moves of a serialized log one at a time, for
+	// replays that should not hold the whole log in memory.
+	public static class Reader
+	{
+		private final DataInputStream in;
+		private final long count;
+		private long read;
+		private int bits;
+
+		public Reader(InputStream stream) throws IOException
+		{
+			in = new DataInputStream(stream);
+			if (in.readInt() != MAGIC)
+				throw new IOException("Not a move log");
+
+			count = in.readLong();
+			if (count < 0)
+				throw new IOException("Bad move count " + count);
+		}
+
+		// Number of moves in the log.
+		public long getCount()
+		{
+			return count;
+		}
+
+		// Next move, or PuzzleMoves.NONE at the end of the log.
+		public int nextMove() throws IOException
+		{
+			if (read == count) return PuzzleMoves.NONE;
+
+			if ((read & 3) == 0)
+			{
+				bits = in.read();
+				if (bits < 0) throw new IOException("Move log ends after " + read + " of " + count + " moves");
+			}
+
+			return (bits >>> ((int) (read++ & 3) << 1)) & 3;
+		}
+	}
+}
@@ -21,20 +21,32 @@
 package com.sunshowerstudios.android.npuzzlesimple;
 
 // Java packages
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Random;
 
 // Android packages
-import android.app.Activity;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Paint;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
 import android.os.Handler;
+import android.os.Parcelable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
@@ -62,29 +74,115 @@ public class NPuzzleView extends RelativeLayout
 {
 	// @Private
 	private static final boolean ZERO_IN_CORNER = false;	// Whether or not the blank piece NEEDS to be in the corner.
-	private static int COUNTDOWN_SECONDS = 3,				// The number of seconds that the initial count down lasts.
-					   BORDER_WIDTH = 6;					// The width in pixels of the border bitmap.
+	private static final int BORDER_WIDTH = 6;				// The width in pixels of the border bitmap.
+	private static final int PLAYBACK_READ_AHEAD = 8,		// Number of solution moves buffered ahead of playback.
+							 PLAYBACK_MOVES_PER_SECOND = 4,	// Default speed of solution playback.
+							 HINT_CACHE_SIZE = 256,			// Slots in the hint cache, a power of two.
+							 HINT_NODE_LIMIT = 50000,		// Solver node budget of one hint,
+							 HINT_MILLIS = 100,				// and its time limit on slow devices.
+							 SLIDE_MILLIS = 120,			// Default duration of a piece sliding.
+							 FRAME_MILLIS = 16,				// Expected interval between frames.
+							 LAYER_TYPE_NONE = 0,			// View.setLayerType() types, API 11 and up.
+							 LAYER_TYPE_HARDWARE = 2;
+	private static final int PLACEHOLDER_COLOR = Color.argb(66, 33, 33, 33); // Shown where pieces are being prepared.
+	private static Method sSetLayerType;					// View.setLayerType(), null before API 11.
+	
+	static
+	{
+		if (Build.VERSION.SDK_INT >= 11)
+		{
+			try
+			{
+				sSetLayerType = View.class.getMethod("setLayerType", int.class, Paint.class);
+			}
+			catch (NoSuchMethodException e) {}
+		}
+	}
+	
+	private static final String STATE_SUPER = "npuzzle.super",	// Bundle keys of saved instance state.
+								STATE_BOARD = "npuzzle.board",
+								STATE_COUNTING = "npuzzle.counting";
 	private Context mContext; 								// Reference to the current context of this Activity.
 	private TableLayout mTableLayout; 						// Reference to containing TableLayout of pieces.
 	private TextView mCountdown; 							// Reference to TextView used in counting down.
-	private static Drawable mBorder; 						// Drawable resource of the border.
-	private static Bitmap mBitmap, mBlankBitmap; 			// Original bitmap of image & scaled version.
-	private static int[][] gameState; 						// Multidimension array of board.
+	private Drawable mBorder; 								// Drawable resource of the border.
+	private TileSource mTileSource; 						// Shared image, null until one is set,
+	private TileSource.Tiles mTiles; 						// and the shared pieces cut from it for this board.
+	private int[][] gameState; 								// Multidimension array of board.
 	private boolean isSolved, 								// Used to prevent clicking after the game has been solved,
 					isCounting,								// or during the initial count down.
-					firstSizeChange = true,					// Used to prevent initial size change handling.
+					isRebuildPending,						// Whether a rebuild for a new size is posted.
 					initialized = false;					// Whether or not init() has been called.
-	private DisplayMetrics metrics = new DisplayMetrics(); 	// Window dimensions.
-	private int[] dims, 									// Image dimensions based on those of the window.
+	private final int[] dims = new int[2], 					// Image dimensions based on those of the parent.
 				  originalDims = new int[2], 				// Dimensions of the original image.
 				  pieceDims = new int[2]; 					// Dimensions of each game piece.
-	private static int difficulty = 3, 						// Difficulty level, ie. 3 -> 3 x 3 board.
-			   moves = 0;									// Number of moves thus far.
+	private int mGeometryWidthSpec, mGeometryHeightSpec,	// Measure specs dims & pieceDims were computed for,
+				mGeometryDifficulty, mGeometryRows,			// with difficulty & rows, 0 if they must be recomputed,
+				mGeometryImageWidth, mGeometryImageHeight;	// and originalDims.
+	private int mRowWidthSpec, mTableHeightSpec,			// Measure specs of the table and its rows,
+				mPieceWidthSpec, mPieceHeightSpec;			// and of each piece.
+	private boolean isTableMeasured;						// Whether the pieces shown were measured at the current geometry.
+	private int difficulty = 3, 							// Difficulty level, ie. 3 -> 3 x 3 board, the columns of the board.
+				rows = 3,									// Rows of the board, the difficulty unless set apart.
+				moves = 0,									// Number of moves thus far.
+				countdownSeconds = 3,						// The number of seconds that the initial count down lasts.
+				mCountdownShown;							// Seconds left shown by mCountdown.
+	private long mCountdownEnd;								// SystemClock.uptimeMillis() the count down ends, 0 if idle.
+	private int actions;									// Taps that moved pieces, one per run slid.
 	private OnSolveListener onSolveListener 				// Handles when the puzzle is solved.
 					= new OnSolveListener() 				// the onSolve method is called.
 	{
 		public void onSolve() {}
 	};
+	private final Handler mPlaybackHandler = new Handler(),	// Drives solution playback,
+						  mCountdownHandler = new Handler(); // and the count down.
+	private MoveSource mPlaybackSource;						// Lazy source of solution moves, null when not playing.
+	private final int[] mPlaybackBuffer						// Ring buffer of moves read ahead from mPlaybackSource.
+						= new int[PLAYBACK_READ_AHEAD];
+	private int mPlaybackHead, mPlaybackCount,				// Start and size of the read ahead buffer.
+				mPlaybackDelay = 1000 / PLAYBACK_MOVES_PER_SECOND; // Milliseconds between played moves.
+	private boolean isPlaybackPaused,						// Whether or not playback is paused,
+					isPlaybackExhausted;					// or mPlaybackSource has no more moves.
+	private PuzzleHeuristic mHeuristic;						// Distance estimate & hash, updated on every move.
+	private PuzzleSolver mHintSolver;						// Solves for hints in the background, created on first use.
+	private final long[] mHintKeys = new long[HINT_CACHE_SIZE]; // Board hashes of cached hints.
+	private final byte[] mHintMoves = new byte[HINT_CACHE_SIZE]; // Next moves, NO_MOVE if empty,
+	private final boolean[] mHintFinal = new boolean[HINT_CACHE_SIZE]; // exact or given up on, else greedy.
+	private int[] mHintBoard;								// Scratch board of getHint().
+	private final Handler mHintHandler = new Handler();		// Receives hints solved in the background.
+	private CancellationToken mHintToken;					// Of the hint being solved, null if none.
+	private int mHintGeneration;							// Hints solved for an older one are dropped.
+	private final MoveLog mMoveLog = new MoveLog();			// Every move of the current game.
+	private byte[] mStartState;								// exportState() of the board the log starts from.
+	private final int[] mLegalMoves = new int[PuzzleMoves.COUNT]; // Scratch of PuzzleMoves.legalMoves().
+	private PuzzleMetrics mMetrics;							// Timings & counts, null when not instrumented.
+	private long mTapStart;									// System.nanoTime() of a tap not yet drawn, or 0.
+	private int mSlideDuration = SLIDE_MILLIS;				// Milliseconds of a slide, 0 to move pieces instantly.
+	private float[] mSlideX = new float[0],					// Offset of the piece at each position from its cell,
+					mSlideY = new float[0];					// as of mSlideStart, 0 if it is not sliding.
+	private long mSlideStart, mLastFrame;					// Start of the current slide, and its last frame.
+	private boolean isSliding;
+	private int mDroppedFrames;								// Frames missed while sliding.
+	private final Object[] mLayerArgs = new Object[2];		// Reused arguments of sSetLayerType.
+	private PuzzleEvents mEvents;							// Batches events for a listener, null without one.
+	private final SharedBoard mSharedBoard = new SharedBoard(); // Board & moves for other threads to read.
+	private final Handler mPrepareHandler = new Handler();	// Receives pieces prepared in the background.
+	private TileCache mTileCache;							// Pieces cut by earlier runs, null for none.
+	private int mPrepareGeneration;							// Pieces prepared for an older one are dropped.
+	private boolean isPreparing,							// Whether pieces are being prepared in the background,
+					isPreparePending,						// or wait for the view to have a size,
+					isCountdownPending;						// and the count down waits for them.
+	private final int[] mPreparingDims = new int[4];		// Width, height, difficulty & rows of the pieces being prepared.
+	private long mStartupStart;								// System.nanoTime() of init(), 0 once the board was drawn.
+	private boolean isFirstFrameDrawn;
+	
+	// Moves, named by the direction the piece
+	// slides into the blank piece.
+	public static final int NO_MOVE = PuzzleMoves.NONE,
+							MOVE_UP = PuzzleMoves.UP,
+							MOVE_DOWN = PuzzleMoves.DOWN,
+							MOVE_RIGHT = PuzzleMoves.RIGHT,
+							MOVE_LEFT = PuzzleMoves.LEFT;
 	
 	/* ====================
 	 *    Public Methods
@@ -95,16 +193,48 @@ public class NPuzzleView extends RelativeLayout
 	 * NPuzzleView 	NPuzzleView(Context context);
 	 * NPuzzleView 	NPuzzleView(Context context, AttributeSet attrs);
 	 * void 		setDifficulty(int N);
+	 * void 		setDifficulty(int columns, int rows);
+	 * int			rowsFor(int columns, int width, int height);
 	 * void 		setImage(Bitmap image);
 	 * void			setImageUri(Uri uri);
+	 * void			setImageResource(int id);
+	 * void			setTileCache(TileCache cache);
+	 * TileCache	getTileCache();
+	 * void			setTileSource(TileSource source);
+	 * TileSource	getTileSource();
 	 * void			setCountDownSeconds(int seconds);
 	 * int			getCountDownSeconds();
 	 * void 		reload();
 	 * void			mix(boolean mix);
 	 * int			getDifficulty();
+	 * int			getRows();
 	 * int			getMoves();
+	 * int			getActions();
 	 * TextView		getCountDownTextView();
+	 * void			setOnEventListener(PuzzleEvents.Listener listener);
+	 * void			setOnEventListener(PuzzleEvents.Listener listener, Handler handler);
 	 * void			setBorder(Drawable border);
+	 * void			setSlideDuration(int millis);
+	 * int			getDroppedFrames();
+	 * void			setMetrics(PuzzleMetrics metrics);
+	 * PuzzleMetrics	getMetrics();
+	 * void			playSolution(MoveSource source);
+	 * void			pausePlayback();
+	 * void			resumePlayback();
+	 * void			cancelPlayback();
+	 * boolean		isPlaying();
+	 * void			setPlaybackSpeed(float movesPerSecond);
+	 * int			getHint();
+	 * int			getLegalMoves(int[] out);
+	 * int			getDistanceEstimate();
+	 * byte[]		exportState();
+	 * boolean		importState(byte[] state);
+	 * boolean		undo();
+	 * boolean		redo();
+	 * SharedBoard	getSharedBoard();
+	 * MoveLog		getMoveLog();
+	 * void			writeReplay(OutputStream out);
+	 * void			playReplay(InputStream in);
 	 */
 	
 	// ====================
@@ -114,43 +244,122 @@ public class NPuzzleView extends RelativeLayout
 	// Setter for difficulty.
 	public void setDifficulty(int N)
 	{
-		difficulty = N;
+		setDifficulty(N, N);
+	}
+	
+	// Setter for a board of columns x rows, eg. 4 x 3.
+	public void setDifficulty(int columns, int rows)
+	{
+		difficulty = columns;
+		this.rows = rows;
+	}
+	
+	// Rows of a board of columns whose pieces are closest to
+	// square on an image of width x height, at least two.
+	public static int rowsFor(int columns, int width, int height)
+	{
+		return Math.max(2, Math.round((float) columns * height / width));
 	}
 	
-	// Setter of mBitmap from bitmap.
+	// Setter of the image from bitmap, shared with any
+	// other board showing the same bitmap.
 	public void setImage(Bitmap image)
 	{
 		if (image == null) return;
 		
-		mBitmap = image;
+		setTileSource(TileSource.of(image));
+	}
+	
+	// Setter of mTileSource, to share one image and its
+	// pieces between boards. The board retains source.
+	public void setTileSource(TileSource source)
+	{
+		if (source == null || source == mTileSource) return;
+		
+		source.retain();
+		final TileSource oldSource = mTileSource;
+		final TileSource.Tiles oldTiles = mTiles;
+		final boolean wasPreparing = (isPreparing || isPreparePending);
+		mTileSource = source;
+		mTiles = null;
+		cancelPrepare();
 		
     	// Save its original dimensions.
-    	originalDims[0] = image.getWidth();
-    	originalDims[1] = image.getHeight();
+    	originalDims[0] = source.getWidth();
+    	originalDims[1] = source.getHeight();
+    	
+    	// Redraw any pieces shown before recycling the old ones.
+    	if (gameState != null && mTableLayout != null && (mTableLayout.getChildCount() > 0 || wasPreparing)) drawTable();
+    	if (oldSource != null)
+    	{
+    		if (oldTiles != null) oldSource.release(oldTiles);
+    		oldSource.release();
+    	}
+	}
+	
+	// Setter of the image from a resource, eg. the src attribute.
+	// Before the first board is shown, decoding waits for the
+	// view to have a size and happens in the background.
+	public void setImageResource(int id)
+	{
+		if (id == 0) return;
+		
+		setTileSource(TileSource.of(getResources(), id));
+	}
+	
+	// Setter of mTileCache, where pieces are looked up before
+	// cutting them and kept after, eg. for a fixed set of images.
+	public void setTileCache(TileCache cache)
+	{
+		mTileCache = cache;
+	}
+	
+	// Getter of mTileCache.
+	public TileCache getTileCache()
+	{
+		return mTileCache;
+	}
+	
+	// Getter of mTileSource.
+	public TileSource getTileSource()
+	{
+		return mTileSource;
 	}
 	
-	// Setter of mBitmap using a URI.
+	// Setter of the image using a URI.
 	public void setImageUri(Uri uri) throws FileNotFoundException
 	{
-		setImage(BitmapFactory.decodeStream(mContext.getContentResolver().openInputStream(uri)));
+		final long start = (mMetrics == null) ? 0 : System.nanoTime();
+		final Bitmap image = BitmapFactory.decodeStream(mContext.getContentResolver().openInputStream(uri));
+		if (mMetrics != null)
+		{
+			mMetrics.recordSince(PuzzleMetrics.DECODE, start);
+			recordBitmap(image);
+		}
+		
+		setImage(image);
 	}
 	
 	// Setter of count down seconds.
 	public void setCountDownSeconds(int seconds)
 	{
-		COUNTDOWN_SECONDS = seconds;
+		countdownSeconds = seconds;
 	}
 	
 	// Getter of count down seconds.
 	public int getCountDownSeconds()
 	{
-		return COUNTDOWN_SECONDS;
+		return countdownSeconds;
 	}
 	
 	// Reloads current game, starts all over.
 	public void reload()
 	{
+		cancelPlayback();
 		moves = 0;
+		actions = 0;
+		mMoveLog.clear();
+		if (gameState != null) mSharedBoard.reset(getBoard(new int[difficulty * rows]), difficulty, moves);
 		isSolved = false;
 		countDown();
 	}
@@ -158,6 +367,7 @@ public class NPuzzleView extends RelativeLayout
 	// Mixes the game.
 	public void mix(boolean mix)
 	{
+		cancelPlayback();
 		if (mix)
 		{
 			isCounting = true;
@@ -179,24 +389,78 @@ public class NPuzzleView extends RelativeLayout
 		return moves;
 	}
 	
-	// Returns difficulty.
+	// Returns the number of taps that moved pieces. A tap
+	// slides a whole run, so this can be less than getMoves().
+	public int getActions()
+	{
+		return actions;
+	}
+	
+	// Returns difficulty, ie. the columns of the board.
 	public int getDifficulty()
 	{
 		return difficulty;
 	}
 	
+	// Returns the rows of the board.
+	public int getRows()
+	{
+		return rows;
+	}
+	
 	// Setter for OnSolverListener.
 	public void setOnSolveListener(OnSolveListener osl)
 	{
 		onSolveListener = osl;
 	}
 	
+	// Sets the listener of moves, shuffles, count down ticks
+	// and the solve, called in batches on the UI thread.
+	public void setOnEventListener(PuzzleEvents.Listener listener)
+	{
+		setOnEventListener(listener, mCountdownHandler);
+	}
+	
+	// Sets the listener of events, called in batches on the
+	// thread of handler, or removes it if listener is null.
+	public void setOnEventListener(PuzzleEvents.Listener listener, Handler handler)
+	{
+		if (mEvents != null) mEvents.cancel();
+		mEvents = (listener == null) ? null : new PuzzleEvents(listener, handler);
+	}
+	
 	// Setter for mBorder.
 	public void setBorder(Drawable border)
 	{
 		mBorder = border;
 	}
 	
+	// Sets how long pieces take to slide, 0 to move them instantly.
+	public void setSlideDuration(int millis)
+	{
+		mSlideDuration = millis;
+		if (millis <= 0 && isSliding) endSlide();
+	}
+	
+	// Returns the number of frames missed while pieces were sliding.
+	public int getDroppedFrames()
+	{
+		return mDroppedFrames;
+	}
+	
+	// Setter of mMetrics, null to stop recording.
+	public void setMetrics(PuzzleMetrics metrics)
+	{
+		mMetrics = metrics;
+		mTapStart = 0;
+	}
+	
+	// Getter of mMetrics.
+	public PuzzleMetrics getMetrics()
+	{
+		return mMetrics;
+	}
+	
 	// Getter for OnSolveListener.
 	public OnSolveListener getOnSolveListener()
 	{
@@ -209,6 +473,241 @@ public class NPuzzleView extends RelativeLayout
 		return mCountdown;
 	}
 	
+	// Plays moves from source back on the board, one
+	// every playback delay. Moves are pulled lazily, so
+	// playback starts right away however long the solution.
+	public void playSolution(MoveSource source)
+	{
+		cancelPlayback();
+		if (source == null) return;
+		
+		mPlaybackSource = source;
+		mPlaybackHandler.post(playbackStep);
+	}
+	
+	// Pauses playback, keeping buffered moves.
+	public void pausePlayback()
+	{
+		isPlaybackPaused = true;
+		mPlaybackHandler.removeCallbacks(playbackStep);
+	}
+	
+	// Resumes paused playback.
+	public void resumePlayback()
+	{
+		if (mPlaybackSource == null || !isPlaybackPaused) return;
+		
+		isPlaybackPaused = false;
+		mPlaybackHandler.post(playbackStep);
+	}
+	
+	// Stops playback and drops its move source.
+	public void cancelPlayback()
+	{
+		mPlaybackHandler.removeCallbacks(playbackStep);
+		mPlaybackSource = null;
+		mPlaybackHead = mPlaybackCount = 0;
+		isPlaybackPaused = isPlaybackExhausted = false;
+	}
+	
+	// Whether or not a solution is being played, paused or not.
+	public boolean isPlaying()
+	{
+		return (mPlaybackSource != null);
+	}
+	
+	// Setter of playback speed, takes effect from the next move.
+	public void setPlaybackSpeed(float movesPerSecond)
+	{
+		if (movesPerSecond <= 0) return;
+		mPlaybackDelay = (int) (1000 / movesPerSecond);
+	}
+	
+	// Returns the next move of an optimal solution, one of
+	// the MOVE_* constants, or NO_MOVE if there is no board
+	// or it is solved. Moves are cached by board hash. On a
+	// miss the best greedy move is cached and returned, and
+	// the board is solved in the background, so asking again
+	// later may give the exact move. Until then, and for
+	// boards the solver gives up on, asking again is O(1).
+	public int getHint()
+	{
+		if (mHeuristic == null || mHeuristic.getEstimate() == 0) return NO_MOVE;
+		
+		final long hash = mHeuristic.getHash();
+		final int slot = hintSlot(hash);
+		final boolean isCached = (mHintMoves[slot] != NO_MOVE && mHintKeys[slot] == hash);
+		if (isCached && (mHintFinal[slot] || mHintToken != null))
+			return mHintMoves[slot];
+		
+		// A greedy hint waiting for the solver, or a miss.
+		if (mHintBoard == null || mHintBoard.length != difficulty * rows)
+			mHintBoard = new int[difficulty * rows];
+		getBoard(mHintBoard);
+		if (!isCached)
+		{
+			mHintKeys[slot] = hash;
+			mHintMoves[slot] = (byte) greedyHint(mHintBoard);
+			mHintFinal[slot] = false;
+		}
+		if (mHintToken == null)
+			solveHint(hash, (int[]) mHintBoard.clone());
+		
+		return mHintMoves[slot];
+	}
+	
+	// Writes the moves that can be played now into out,
+	// which must hold 4, and returns how many.
+	public int getLegalMoves(int[] out)
+	{
+		if (gameState == null) return 0;
+		return PuzzleMoves.legalMoves(getBlankPosition(), difficulty, rows, out);
+	}
+	
+	// Returns a lower bound on the moves left, Manhattan
+	// distance plus linear conflict, in O(1).
+	public int getDistanceEstimate()
+	{
+		return (mHeuristic == null) ? 0 : mHeuristic.getEstimate();
+	}
+	
+	// Returns the board, moves and whether or not it is solved
+	// in a few bytes: the board's permutation rank as a long up
+	// to 4x5, or its packed Lehmer digits for larger boards.
+	// Returns null without a board, or while counting down as
+	// the board is not shuffled yet.
+	public byte[] exportState()
+	{
+		if (gameState == null || isCounting) return null;
+		
+		return encodeState();
+	}
+	
+	// The current board as exportState() encodes it, even unshuffled.
+	private byte[] encodeState()
+	{
+		return new SavedBoard(difficulty, rows, getBoard(new int[difficulty * rows]), moves, isSolved).encode();
+	}
+	
+	// Restores a board from exportState() by decoding it, no
+	// shuffle or count down. Returns false if state is invalid.
+	public boolean importState(byte[] state)
+	{
+		final SavedBoard saved;
+		try
+		{
+			saved = SavedBoard.decode(state);
+		}
+		catch (IllegalArgumentException e)
+		{
+			return false;
+		}
+		
+		final int N = saved.width;
+		cancelPlayback();
+		cancelCountDown();
+		
+		difficulty = N;
+		rows = saved.height;
+		moves = saved.moves;
+		isSolved = saved.solved;
+		isCounting = false;
+		gameState = new int[rows][N];
+		for (int i = 0; i < saved.board.length; i++)
+			gameState[i / N][i % N] = saved.board[i];
+		resetHeuristic();
+		startMoveLog();
+		
+		mCountdown.setVisibility(View.GONE);
+		if (mTileSource != null) drawTable();
+		
+		return true;
+	}
+	
+	// Takes back the last move, returns whether or not there was one.
+	// The log's cursor only moves once the piece has.
+	public boolean undo()
+	{
+		if (isSolved || isCounting || !mMoveLog.canUndo()) return false;
+		
+		final int move = mMoveLog.get(mMoveLog.getPosition() - 1);
+		final ImageView piece = getPieceForMove(PuzzleMoves.opposite(move));
+		final int tile = (piece == null) ? -1 : getPieceAt((Integer) piece.getTag());
+		if (piece == null || !movePiece(piece, false, -1)) return false;
+		
+		mMoveLog.undo();
+		if (mEvents != null) mEvents.add(PuzzleEvents.UNDO, move, tile, moves);
+		return true;
+	}
+	
+	// Plays the last undone move again, returns whether or not there was one.
+	// The log's cursor only moves once the piece has.
+	public boolean redo()
+	{
+		if (isSolved || isCounting || !mMoveLog.canRedo()) return false;
+		
+		final int move = mMoveLog.get(mMoveLog.getPosition());
+		final ImageView piece = getPieceForMove(move);
+		final int tile = (piece == null) ? -1 : getPieceAt((Integer) piece.getTag());
+		if (piece == null || !movePiece(piece, false, 1)) return false;
+		
+		mMoveLog.redo();
+		if (mEvents != null) mEvents.add(PuzzleEvents.REDO, move, tile, moves);
+		return true;
+	}
+	
+	// Returns the board and move count for other threads, which
+	// read consistent copies without blocking the UI thread.
+	public SharedBoard getSharedBoard()
+	{
+		return mSharedBoard;
+	}
+	
+	// Returns the log of the current game's moves.
+	public MoveLog getMoveLog()
+	{
+		return mMoveLog;
+	}
+	
+	// Writes the starting board and every move played so far,
+	// to be played back at any speed with playReplay().
+	public void writeReplay(OutputStream out) throws IOException
+	{
+		if (mStartState == null) return;
+		
+		final DataOutputStream data = new DataOutputStream(out);
+		data.writeShort(mStartState.length);
+		data.write(mStartState);
+		mMoveLog.writeTo(data);
+	}
+	
+	// Restores the starting board of a replay and plays its
+	// moves back, read from in one at a time as they are due.
+	public void playReplay(InputStream in) throws IOException
+	{
+		final DataInputStream data = new DataInputStream(in);
+		final byte[] state = new byte[data.readUnsignedShort()];
+		data.readFully(state);
+		
+		if (!importState(state)) throw new IOException("Bad replay board");
+		
+		final MoveLog.Reader reader = new MoveLog.Reader(data);
+		playSolution(new MoveSource()
+		{
+			public int nextMove()
+			{
+				try
+				{
+					return reader.nextMove();
+				}
+				catch (IOException e)
+				{
+					return NO_MOVE; // End playback at a truncated log.
+				}
+			}
+		});
+	}
+	
 	// ====================
 	//     Constructors
 	// ====================
@@ -233,23 +732,23 @@ public class NPuzzleView extends RelativeLayout
 		try
 		{
 			// Set difficulty.
-		    difficulty = attr.getInt(R.styleable.NPuzzleView_difficulty, difficulty);
+		    difficulty = rows = attr.getInt(R.styleable.NPuzzleView_difficulty, difficulty);
 		    
 		    // Set count down seconds.
-		    COUNTDOWN_SECONDS = attr.getInt(R.styleable.NPuzzleView_countdownSeconds, COUNTDOWN_SECONDS);
+		    countdownSeconds = attr.getInt(R.styleable.NPuzzleView_countdownSeconds, countdownSeconds);
 		    
 		    // Set border drawable.
 		    mBorder = attr.getDrawable(R.styleable.NPuzzleView_border);
 		    
-		    // Set image bitmap.
-		    final BitmapDrawable src = (BitmapDrawable) attr.getDrawable(R.styleable.NPuzzleView_src);
+		    // Set image resource, decoded once the view has a size.
+		    final int src = attr.getResourceId(R.styleable.NPuzzleView_src, 0);
 		    
 		    // Make sure the image isn't null.
-		    if (src != null)
+		    if (src != 0)
 		    {
-		    	setImage(src.getBitmap());
-		    	// Start Game.
 		    	init();
+		    	setImageResource(src);
+		    	// Start Game.
 		    	mix(true);
 		    }
 		}
@@ -270,6 +769,18 @@ public class NPuzzleView extends RelativeLayout
 		public void onSolve();
 	}
 	
+	// ====================
+	//      MoveSource
+	// ====================
+	
+	// Lazily supplies moves for playSolution, such
+	// as the path of a solver. nextMove returns one
+	// of the MOVE_* constants, or NO_MOVE when done.
+	public static interface MoveSource
+	{
+		public int nextMove();
+	}
+	
 	// =====================
 	//    Initialization
 	// =====================
@@ -279,6 +790,7 @@ public class NPuzzleView extends RelativeLayout
 		// Do not initialize twice.
 		if (initialized) return;
 		initialized = true;
+		mStartupStart = System.nanoTime();
 		
 		// Create Table Layout.
 		mTableLayout = new TableLayout(mContext);
@@ -291,7 +803,7 @@ public class NPuzzleView extends RelativeLayout
 		
 		// Create and style Count Down Text.
 		mCountdown = new TextView(mContext);
-		mCountdown.setText(COUNTDOWN_SECONDS+"");
+		mCountdown.setText(countdownSeconds+"");
 		mCountdown.setVisibility(TextView.VISIBLE);
 		mCountdown.setGravity(Gravity.CENTER);
 		mCountdown.setTextColor(Color.WHITE); // #FFFFFF
@@ -326,16 +838,12 @@ public class NPuzzleView extends RelativeLayout
 	// ====================
 	
 	/* Used to determine the maximum possible dimensions for an image
-	 * based on the image's dimensions and those of its container (window) */
-	private int[] imageDimensions(int imageWidth, int imageHeight)
+	 * based on the image's dimensions and the bounds of its container,
+	 * written into imageDims */
+	private static void imageDimensions(int imageWidth, int imageHeight, int maxWidth, int maxHeight, int[] imageDims)
 	{
-		int[] imageDims = new int[2],
-			  maxDims = new int[2];
+		final int[] maxDims = { maxWidth, maxHeight };
 		float ratio = 0;
-		
-		// Get dimensions of layout.
-		maxDims[0] = metrics.widthPixels;
-		maxDims[1] = metrics.heightPixels;
 				
 		// 1:1 Aspect Ratio
 		if (imageWidth == imageHeight)
@@ -365,18 +873,60 @@ public class NPuzzleView extends RelativeLayout
 	        imageDims[0] = imageWidth;
 	        imageDims[1] = imageHeight;
 		}
+	}
+	
+	// Computes dims, pieceDims and the measure specs of the table
+	// for the bounds of the parent's measure specs, keeping them
+	// while the specs, shape and image are unchanged. An
+	// unspecified bound falls back to that of the window.
+	private void updateGeometry(int widthMeasureSpec, int heightMeasureSpec)
+	{
+		if (widthMeasureSpec == mGeometryWidthSpec && heightMeasureSpec == mGeometryHeightSpec
+				&& difficulty == mGeometryDifficulty && rows == mGeometryRows
+				&& originalDims[0] == mGeometryImageWidth && originalDims[1] == mGeometryImageHeight) return;
+		
+		int maxWidth = MeasureSpec.getSize(widthMeasureSpec),
+			maxHeight = MeasureSpec.getSize(heightMeasureSpec);
+		final boolean bounded = (MeasureSpec.getMode(widthMeasureSpec) != MeasureSpec.UNSPECIFIED
+				&& MeasureSpec.getMode(heightMeasureSpec) != MeasureSpec.UNSPECIFIED);
+		if (!bounded)
+		{
+			// Get window metrics such as height, width, etc.
+			final DisplayMetrics metrics = getResources().getDisplayMetrics();
+		    if (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED) maxWidth = metrics.widthPixels;
+		    if (MeasureSpec.getMode(heightMeasureSpec) == MeasureSpec.UNSPECIFIED) maxHeight = metrics.heightPixels;
+		}
+		
+		// Calculate image dimensions based on original ones.
+		imageDimensions(originalDims[0], originalDims[1], maxWidth, maxHeight, dims);
+		
+		// Calculate the size of each piece.
+		pieceDims[0] = (int) dims[0] / difficulty;
+		pieceDims[1] = (int) dims[1] / rows;
 		
-	    return imageDims;
+		mRowWidthSpec = MeasureSpec.makeMeasureSpec(pieceDims[0] * difficulty, MeasureSpec.EXACTLY);
+		mTableHeightSpec = MeasureSpec.makeMeasureSpec(pieceDims[1] * rows, MeasureSpec.EXACTLY);
+		mPieceWidthSpec = MeasureSpec.makeMeasureSpec(pieceDims[0], MeasureSpec.EXACTLY);
+		mPieceHeightSpec = MeasureSpec.makeMeasureSpec(pieceDims[1], MeasureSpec.EXACTLY);
+		isTableMeasured = false;
+		
+		// The window can change under unspecified bounds, so only keep bounded ones.
+		mGeometryWidthSpec = widthMeasureSpec;
+		mGeometryHeightSpec = heightMeasureSpec;
+		mGeometryDifficulty = bounded ? difficulty : 0;
+		mGeometryRows = rows;
+		mGeometryImageWidth = originalDims[0];
+		mGeometryImageHeight = originalDims[1];
 	}
 	
 	// Fetch the position corresponding
 	// to the blank game piece.
 	private int getBlankPosition()
 	{
-		final int blankIndex = (difficulty * difficulty) - 1;
+		final int blankIndex = (difficulty * rows) - 1;
 		
 		// Determine where the blank piece is.
-		for (int i = 0; i < difficulty; i++)
+		for (int i = 0; i < rows; i++)
 		{
 			for (int e = 0; e < difficulty; e++)
 			{
@@ -423,113 +973,345 @@ public class NPuzzleView extends RelativeLayout
 			// Don't do anything if the game has been solved.
 			if (isSolved || isCounting) return;
 			
-			// Initialize and Cast Views.
-			ImageView imageView = (ImageView) view;			
-			// Initialize integers.
-			int position = (Integer) imageView.getTag(),
-				row = (int)(position / difficulty),
-				col = position % difficulty,
-				direction = -1,
-				blankPosition = getBlankPosition(),
-				blankRow,
-				blankCol;
+			// Time the tap until the board is next drawn.
+			final long start = (mMetrics == null) ? 0 : System.nanoTime();
+			if (movePiece((ImageView) view, true, 0) && mMetrics != null)
+				mTapStart = start;
+		}
+	};
+	
+	// Slides the piece of imageView, and every piece between it
+	// and the blank piece, towards the blank if they share a row
+	// or column. The board, log and heuristic take each single
+	// move, but the run is redrawn and checked for a solve once.
+	// Returns whether or not any piece moved. Undo and redo move
+	// pieces without recording new moves, changing the move count
+	// by delta instead. The count is published with the board, so
+	// readers of mSharedBoard never see one without the other.
+	private boolean movePiece(ImageView imageView, boolean record, int delta)
+	{
+		// Initialize integers.
+		final int position = (Integer) imageView.getTag(),
+				  row = position / difficulty,
+				  col = position % difficulty,
+				  blankPosition = getBlankPosition(),
+				  blankRow = blankPosition / difficulty,
+				  blankCol = blankPosition % difficulty;
+		int direction = NO_MOVE;
+		
+		// Pieces left or right of the blank piece slide right or left,
+		// those above or below it slide down or up.
+		if (row == blankRow && col != blankCol)
+			direction = (col < blankCol) ? MOVE_RIGHT : MOVE_LEFT;
+		else if (col == blankCol && row != blankRow)
+			direction = (row < blankRow) ? MOVE_DOWN : MOVE_UP;
+		
+		if (direction == NO_MOVE) return false;
+		
+		// Move the run one piece at a time in the int array,
+		// starting with the piece next to the blank piece.
+		int blank = blankPosition, count = 0;
+		mSharedBoard.begin();
+		while (blank != position)
+		{
+			final int from = PuzzleMoves.pieceFor(direction, blank, difficulty, rows),
+					  piece = gameState[from / difficulty][from % difficulty];
 			
-			final ImageView blankView = getBlankImageView();
+			mHeuristic.moveTile(piece, from, blank);
+			gameState[from / difficulty][from % difficulty] = gameState[blank / difficulty][blank % difficulty];
+			gameState[blank / difficulty][blank % difficulty] = piece;
+			mSharedBoard.set(from, gameState[from / difficulty][from % difficulty]);
+			mSharedBoard.set(blank, piece);
+			if (record)
+			{
+				mMoveLog.append(direction);
+				if (mEvents != null) mEvents.add(PuzzleEvents.MOVE, direction, piece, moves + count + 1);
+			}
 			
-			blankCol = blankPosition % difficulty;
-			blankRow = (int) (blankPosition / difficulty);
+			blank = from;
+			++count;
+		}
+		
+		if (record)
+		{
+			moves += count; // increment the number of moves,
+			++actions;		// by one action.
+		}
+		else
+		{
+			moves += delta;
+		}
+		mSharedBoard.setMoves(moves);
+		mSharedBoard.end();
+		
+		// Shift the bitmaps along the run, each ImageView
+		// taking that of its neighbour further from the blank.
+		ImageView target = getImageViewAt(blankPosition);
+		for (int step = blankPosition; step != position; )
+		{
+			final int from = PuzzleMoves.pieceFor(direction, step, difficulty, rows);
+			final ImageView source = getImageViewAt(from);
 			
-			// Check to see if the piece clicked is not the blank piece.
-			if (position != blankPosition)
+			target.setImageBitmap(((BitmapDrawable) source.getDrawable()).getBitmap());
+			target.setBackgroundDrawable(mBorder);
+			
+			target = source;
+			step = from;
+		}
+		
+		imageView.setImageBitmap(mTiles.blank);
+		imageView.setBackgroundDrawable(null);
+		
+		if (mSlideDuration > 0) slide(blankPosition, position, direction);
+		
+		// If the user has solved, notify listener.
+		if (hasWon())
+		{
+			isSolved = true;
+			onSolveListener.onSolve();
+			if (mEvents != null) mEvents.add(PuzzleEvents.SOLVE, NO_MOVE, -1, moves);
+		}
+		
+		return true;
+	}
+	
+	// Fetch the ImageView at position,
+	// ie. (row * difficulty) + col.
+	private ImageView getImageViewAt(int position)
+	{
+		final ViewGroup rowView = (ViewGroup) mTableLayout.getChildAt(position / difficulty);
+		return (rowView == null) ? null : (ImageView) rowView.getChildAt(position % difficulty);
+	}
+	
+	// Fetch the ImageView of the piece that
+	// move would slide into the blank piece.
+	private ImageView getPieceForMove(int move)
+	{
+		final int position = PuzzleMoves.pieceFor(move, getBlankPosition(), difficulty, rows);
+		return (position < 0) ? null : getImageViewAt(position);
+	}
+	
+	// Counts the bytes of bitmap towards mMetrics.
+	private void recordBitmap(Bitmap bitmap)
+	{
+		if (bitmap != null) mMetrics.recordBitmap(bitmap.getRowBytes() * bitmap.getHeight());
+	}
+	
+	// Piece at position, ie. (row * difficulty) + col.
+	private int getPieceAt(int position)
+	{
+		return gameState[position / difficulty][position % difficulty];
+	}
+	
+	// Copies gameState into board in row order.
+	private int[] getBoard(int[] board)
+	{
+		for (int i = 0; i < rows; i++)
+			for (int e = 0; e < difficulty; e++)
+				board[(i * difficulty) + e] = gameState[i][e];
+		
+		return board;
+	}
+	
+	// Slot of the hint cache for hash.
+	private static int hintSlot(long hash)
+	{
+		return (int) (hash ^ (hash >>> 32)) & (HINT_CACHE_SIZE - 1);
+	}
+	
+	// Solves board in the background within HINT_NODE_LIMIT
+	// nodes and HINT_MILLIS, then caches the next move of every
+	// board along the solution, so following hints stays a
+	// lookup. One board is solved at a time.
+	private void solveHint(final long hash, final int[] board)
+	{
+		final int generation = mHintGeneration,
+				  width = difficulty,
+				  height = rows;
+		final CancellationToken token = mHintToken = new CancellationToken();
+		
+		new Thread(new Runnable()
+		{
+			public void run()
 			{
-				// Check right and left pieces.
-				
-				// Piece clicked is leftmost in its row.
-				if (col == 0)
-				{
-					// Check the the piece to the right of the one clicked.
-					if (position + 1 == blankPosition)
-					{
-						direction = 2;
-					}
-				}
-				// Piece clicked is rightmost in its row.
-				else if (col == difficulty - 1)
+				// Only this thread uses the solver until hintSolved() runs.
+				if (mHintSolver == null || mHintSolver.getWidth() != width || mHintSolver.getHeight() != height)
 				{
-					// Check the piece to the left of the one clicked.
-					if (position - 1 == blankPosition)
-					{
-						direction = 3;
-					}
+					mHintSolver = new PuzzleSolver(width, height);
+					mHintSolver.setMaxNodes(HINT_NODE_LIMIT);
+					mHintSolver.setTimeLimit(HINT_MILLIS);
 				}
-				// Piece clicked is in the middle of its row.
-				else
+				mHintSolver.setCancellationToken(token);
+				
+				final int[] solution = mHintSolver.solve(board);
+				final long[] hashes = (solution == null) ? null : new long[solution.length];
+				if (solution != null)
 				{
-					// Check the piece to the left of the one clicked.
-					if (position - 1 == blankPosition)
-					{
-						direction = 3;
-					}
-					// Check the the piece to the right of the one clicked.
-					else if (position + 1 == blankPosition)
+					final PuzzleHeuristic walk = new PuzzleHeuristic(width, height);
+					int blank = PuzzleMoves.findBlank(board);
+					walk.reset(board);
+					
+					for (int i = 0; i < solution.length; i++)
 					{
-						direction = 2;
+						hashes[i] = walk.getHash();
+						
+						final int from = PuzzleMoves.pieceFor(solution[i], blank, width, height);
+						walk.moveTile(board[from], from, blank);
+						board[blank] = board[from];
+						board[from] = board.length - 1;
+						blank = from;
 					}
 				}
 				
-				// Check top and bottom pieces.
-				
-				// Check the piece below the one clicked.
-				if (position + difficulty == blankPosition)
+				mHintHandler.post(new Runnable()
 				{
-					direction = 1;
-				}
-				// Check the piece above the one clicked.
-				else if (position - difficulty == blankPosition)
-				{
-					direction = 0;
-				}
-				
-				// ====================
-				// Here a piece adjacent
-				// to the blank piece
-				// has been clicked,
-				// update styles/ move
-				// pieces, animate, etc.
-				// ====================
-				
-				// The piece clicked IS next to the blank piece.
-				if (direction != -1)
-				{
-					++moves; // increment the number of moves.
-					
-					// Swap piece and blank piece in int array.
-					int tmp = gameState[row][col];
-					gameState[row][col] = gameState[blankRow][blankCol];
-					gameState[blankRow][blankCol] = tmp;
-					
-					// Fetch image of clicked piece.
-					final BitmapDrawable drawable = (BitmapDrawable) imageView.getDrawable();
-					final Bitmap bitmap = drawable.getBitmap();
-					
-					// Swap piece and blank piece bitmaps.
-					blankView.setImageBitmap(bitmap);
-					blankView.setBackgroundDrawable(mBorder);
-					
-					imageView.setImageBitmap(mBlankBitmap);
-					imageView.setBackgroundDrawable(null);
-					
-					// If the user has solved, notify listener.
-					if (hasWon())
+					public void run()
 					{
-						isSolved = true;
-						onSolveListener.onSolve();
+						hintSolved(generation, hash, solution, hashes);
 					}
-				}
+				});
 			}
+		}, "NPuzzleView-hint").start();
+	}
+	
+	// Caches a hint solved in the background, on the UI thread.
+	private void hintSolved(int generation, long hash, int[] solution, long[] hashes)
+	{
+		mHintToken = null;
+		if (generation != mHintGeneration) return; // The board size changed meanwhile.
+		
+		if (solution == null)
+		{
+			// Too deep to solve, keep the greedy hint of this board.
+			final int slot = hintSlot(hash);
+			if (mHintKeys[slot] == hash) mHintFinal[slot] = true;
+			return;
+		}
+		
+		for (int i = 0; i < solution.length; i++)
+		{
+			final int slot = hintSlot(hashes[i]);
+			mHintKeys[slot] = hashes[i];
+			mHintMoves[slot] = (byte) solution[i];
+			mHintFinal[slot] = true;
+		}
+	}
+	
+	// Stops the hint being solved, if any, and drops its result.
+	private void cancelHint()
+	{
+		++mHintGeneration;
+		if (mHintToken != null) mHintToken.cancel();
+	}
+	
+	// The move of board that lowers the estimate most.
+	private int greedyHint(int[] board)
+	{
+		final int blank = PuzzleMoves.findBlank(board),
+				  count = PuzzleMoves.legalMoves(blank, difficulty, rows, mLegalMoves);
+		int best = NO_MOVE, bestEstimate = Integer.MAX_VALUE;
+		for (int i = 0; i < count; i++)
+		{
+			final int move = mLegalMoves[i],
+					  from = PuzzleMoves.pieceFor(move, blank, difficulty, rows);
+			
+			mHeuristic.moveTile(board[from], from, blank);
+			if (mHeuristic.getEstimate() < bestEstimate)
+			{
+				bestEstimate = mHeuristic.getEstimate();
+				best = move;
+			}
+			mHeuristic.moveTile(board[from], blank, from);
+		}
+		
+		return best;
+	}
+	
+	// Rebuilds mHeuristic from gameState, and drops
+	// cached hints if the board size has changed.
+	private void resetHeuristic()
+	{
+		if (mHeuristic == null || mHeuristic.getWidth() != difficulty || mHeuristic.getHeight() != rows)
+		{
+			mHeuristic = new PuzzleHeuristic(difficulty, rows);
+			Arrays.fill(mHintMoves, (byte) NO_MOVE);
+			cancelHint();
+		}
+		
+		final int[] board = getBoard(new int[difficulty * rows]);
+		mHeuristic.reset(board);
+		mSharedBoard.reset(board, difficulty, moves);
+	}
+	
+	// Starts a new move log from the current board.
+	private void startMoveLog()
+	{
+		mMoveLog.clear();
+		actions = 0;
+		mStartState = encodeState();
+	}
+	
+	// Plays one buffered move, then tops up the buffer
+	// from mPlaybackSource and schedules the next move.
+	private Runnable playbackStep = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			if (mPlaybackSource == null || isPlaybackPaused) return;
+			
+			// Wait for the count down to finish.
+			if (isCounting)
+			{
+				mPlaybackHandler.postDelayed(playbackStep, mPlaybackDelay);
+				return;
+			}
+			
+			// Only pull the first move now, so playback starts immediately.
+			if (mPlaybackCount == 0) fillPlaybackBuffer(1);
+			
+			// Out of moves, or the game was solved some other way.
+			if (mPlaybackCount == 0 || isSolved)
+			{
+				cancelPlayback();
+				return;
+			}
+			
+			final int move = mPlaybackBuffer[mPlaybackHead];
+			mPlaybackHead = (mPlaybackHead + 1) % PLAYBACK_READ_AHEAD;
+			--mPlaybackCount;
+			
+			// Stop if the board no longer matches the source.
+			final ImageView piece = getPieceForMove(move);
+			if (piece == null || !movePiece(piece, true, 0) || isSolved)
+			{
+				cancelPlayback();
+				return;
+			}
+			
+			fillPlaybackBuffer(PLAYBACK_READ_AHEAD);
+			mPlaybackHandler.postDelayed(playbackStep, mPlaybackDelay);
 		}
 	};
 	
+	// Pulls moves from mPlaybackSource until
+	// the buffer holds up to `count` moves.
+	private void fillPlaybackBuffer(int count)
+	{
+		while (!isPlaybackExhausted && mPlaybackCount < count)
+		{
+			final int move = mPlaybackSource.nextMove();
+			if (move == NO_MOVE)
+			{
+				isPlaybackExhausted = true;
+				break;
+			}
+			
+			mPlaybackBuffer[(mPlaybackHead + mPlaybackCount) % PLAYBACK_READ_AHEAD] = move;
+			++mPlaybackCount;
+		}
+	}
+	
 	// Draws the table based on current state.
 	// Fills mTableLayout with rows of
 	// ImageViews, each set to one piece of
@@ -537,20 +1319,32 @@ public class NPuzzleView extends RelativeLayout
 	// attached to each ImageViews.
 	private void drawTable()
 	{
+		final long start = (mMetrics == null) ? 0 : System.nanoTime();
 		final Bitmap[] pieces = makePieces();
+		if (pieces == null) return; // Drawn once they are prepared.
+		
+		// Drop any slide, its pieces are about to be replaced.
+		if (isSliding) endSlide();
+		if (mSlideX.length != difficulty * rows)
+		{
+			mSlideX = new float[difficulty * rows];
+			mSlideY = new float[difficulty * rows];
+		}
 		
-		// Removes all previous pieces.
+		// Removes all previous pieces, or the placeholder.
 		mTableLayout.removeAllViews();
+		mTableLayout.setBackgroundDrawable(null);
+		isTableMeasured = false;
 						
-		// Loop through N rows and N columns and make table.
-		for (int i = 0; i < difficulty; ++i)
+		// Loop through the rows and columns and make table.
+		for (int i = 0; i < rows; ++i)
 		{
 			final TableRow row = new TableRow(mContext); // create a row.
 			
 			for (int e = 0; e < difficulty; ++e)
 			{
 				// Create an ImageView to add to the table.
-				final ImageView img = new ImageView(mContext); // create an image.
+				final ImageView img = new PieceView(mContext); // create an image.
 				img.setImageBitmap(pieces[gameState[i][e]]); // set bitmap.
 				img.setTag(new Integer((i * difficulty) + e));
 				img.setOnClickListener(pieceClicked);
@@ -566,136 +1360,165 @@ public class NPuzzleView extends RelativeLayout
 		// Center mTableLayout & mCountdown.
 		centerTableLayout();
 		centerCountDown();
+		
+		if (mMetrics != null) mMetrics.recordSince(PuzzleMetrics.DRAW_TABLE, start);
 	}
 	
-	// Generates the array of Bitmap pieces
-	// from the scaled version mScaledBitmap.
+	// Fetches the Bitmap pieces of the current size
+	// and shape from mTileSource, cutting them
+	// only if no other board holds them already.
+	// Returns null while the first pieces of a table
+	// are prepared in the background.
 	private Bitmap[] makePieces()
 	{
-		// Get window metrics such as height, width, etc.
-	    (((Activity) mContext).getWindowManager().getDefaultDisplay()).getMetrics(metrics);
+		// Size the pieces for the last bounds measured, if any.
+		updateGeometry(mGeometryWidthSpec, mGeometryHeightSpec);
+		if (fits(mTiles)) return mTiles.pieces;
 		
-		// Calculate image dimensions based on original ones.
-		dims = imageDimensions(originalDims[0], originalDims[1]);
-				
-		// Initialize pieces.
-		Bitmap[] pieces = new Bitmap[difficulty * difficulty];
-				
-		// Calculate the size of each piece.
-	    pieceDims[0] = (int) dims[0] / difficulty;
-	    pieceDims[1] = (int) dims[1] / difficulty;
-	    
-		// Generate a scaled bitmap.
-    	final Bitmap mScaledBitmap = Bitmap.createScaledBitmap(mBitmap, dims[0], dims[1], true);
-    	
-    	// Initialize blank bitmap (no image required).
-    	mBlankBitmap = Bitmap.createBitmap(pieceDims[0] - BORDER_WIDTH,
-    			pieceDims[1] - BORDER_WIDTH, Bitmap.Config.ARGB_4444);
-    	mBlankBitmap.eraseColor(Color.TRANSPARENT);
-
-	    // Initialize some primitives.
-		final int lastSquare = (difficulty * difficulty) -1;
-		boolean isLastSquare;
+		// Without pieces shown, show a placeholder and cut them off the UI thread.
+		if (mTileSource == null || mTableLayout.getChildCount() == 0)
+		{
+			preparePieces();
+			return null;
+		}
+		
+		final long start = (mMetrics == null) ? 0 : System.nanoTime();
+		final TileSource.Tiles tiles = mTileSource.acquire(dims[0], dims[1], difficulty, rows, BORDER_WIDTH, mTileCache);
+		if (mTiles != null) mTileSource.release(mTiles);
+		mTiles = tiles;
+		
+		if (mMetrics != null && !mTiles.isShared()) mMetrics.recordBitmap(mTiles.getByteCount());
+		if (mMetrics != null) mMetrics.recordSince(PuzzleMetrics.MAKE_PIECES, start);
+		
+		return mTiles.pieces;
+	}
+	
+	// Whether or not tiles are of the current size and shape.
+	private boolean fits(TileSource.Tiles tiles)
+	{
+		return (tiles != null && tiles.width == dims[0] && tiles.height == dims[1]
+				&& tiles.difficulty == difficulty && tiles.rows == rows);
+	}
+	
+	// Lets go of mTiles and mTileSource, recycling
+	// them if no other board holds them.
+	private void releaseTiles()
+	{
+		if (mTileSource == null) return;
 		
-		// Loop through every piece.
-		for (int i = 0; i < difficulty; ++i)
+		if (mTiles != null) mTileSource.release(mTiles);
+		mTileSource.release();
+		mTiles = null;
+		mTileSource = null;
+	}
+	
+	// One step of the count down, run as the number shown
+	// changes. Seconds left come from mCountdownEnd rather
+	// than the text, so a late step catches up and a
+	// cancelled count down leaves nothing behind.
+	private final Runnable countdownTick = new Runnable()
+	{
+		@Override
+		public void run()
 		{
-			for (int e = 0; e < difficulty; ++e)
+			if (mCountdownEnd == 0) return;
+			
+			final long now = SystemClock.uptimeMillis();
+			final int seconds = (int) Math.max(0, (mCountdownEnd - now + 999) / 1000);
+			if (seconds != mCountdownShown)
 			{
-				isLastSquare = (lastSquare == (i * difficulty) + e);
-				
-				// If it is the last image, use a blank image (and cut from [0, 0]).
-				// Create bitmap of game piece, subtract for border.
-				pieces[(i*difficulty) + e] = Bitmap.createBitmap(
-					((isLastSquare) ? mBlankBitmap : mScaledBitmap),
-					((isLastSquare) ? 0 : pieceDims[0]*e),
-					((isLastSquare) ? 0 : pieceDims[1]*i),
-					pieceDims[0] - BORDER_WIDTH,
-					pieceDims[1] - BORDER_WIDTH);
+				mCountdownShown = seconds;
+				if (mEvents != null) mEvents.add(PuzzleEvents.COUNTDOWN, NO_MOVE, -1, seconds);
+			}
+			
+			// If we have reached zero seconds, hide
+			// the countdown and shuffle the puzzle.
+			if (seconds == 0)
+			{
+				mCountdownEnd = 0;
+				mCountdown.setVisibility(View.GONE);
+				isCounting = false; // Used to prevent clicks when counting.
+				shuffle(true); // Shuffles the puzzle.
+				drawTable();
+				return;
 			}
+			
+			mCountdown.setText(Integer.toString(seconds));
+			
+			// Run again when the next second is due.
+			mCountdownHandler.postAtTime(this, mCountdownEnd - (seconds - 1) * 1000L);
 		}
+	};
+	
+	// Counts down the TextView from countdownSeconds to
+	// zero, then hides it and shuffles. Starting again
+	// replaces any count down in progress.
+	private void countDown()
+	{
+		cancelCountDown();
 		
-		mScaledBitmap.recycle(); // Clean up.
+		isCounting = true;
+		mCountdownShown = countdownSeconds;
+		mCountdown.setVisibility(View.VISIBLE); // In case it was hidden.
+		mCountdown.setText(Integer.toString(countdownSeconds));
+		
+		// Start once the pieces are shown.
+		if (isPreparing || isPreparePending)
+		{
+			isCountdownPending = true;
+			return;
+		}
 		
-		return pieces;
+		mCountdownEnd = SystemClock.uptimeMillis() + countdownSeconds * 1000L;
+		mCountdownHandler.postAtTime(countdownTick, mCountdownEnd - Math.max(0, countdownSeconds - 1) * 1000L);
 	}
 	
-	// Runnable to deincrement the count of mCountdown
-	// Called within a loop and set to run any number
-	// of seconds so as to provide the illusion of
-	// a count down.
-	private Runnable deincrementCountdown =  new Runnable()
-    {
-    	@Override
-    	public void run()
-    	{
-    		// Determine current number of seconds minus one.
-    		final int seconds = (Integer.parseInt((String) mCountdown.getText())-1);
-    		
-    		// If we have reached zero seconds, hide
-    		// the countdown and shuffle the puzzle.
-    		if (seconds == 0)
-    		{
-    			// Hide countdown after COUNTDOWN_SECONDS
-    			mCountdown.setVisibility(View.GONE);
-    			isCounting = false; // Used to prevent clicks when counting.
-    			shuffle(true); // Shuffles the puzzle.
-    			drawTable();
-    		}
-    		else
-    			// deincrement the countdown
-    			mCountdown.setText(""+seconds);
-    	}
-    };
-    
-    private Runnable deincrementCountdownNoShuffle =  new Runnable()
-    {
-    	@Override
-    	public void run()
-    	{
-			// Hide countdown after COUNTDOWN_SECONDS
-			mCountdown.setVisibility(View.GONE);
-			isCounting = false; // Used to prevent clicks when counting.
-			drawTable();
-    	}
-    };
-	
-	// Counts down the TextView from `from` to Zero seconds,
-	// then rehides it after `from` seconds.
-	private void countDown()
+	// Drops the count down in progress, if any.
+	private void cancelCountDown()
 	{
-		 mCountdown.setVisibility(View.VISIBLE); // In case it was hidden.
-		mCountdown.setText(""+COUNTDOWN_SECONDS);
-	    final Handler mHandler = new Handler(); // Initialize handler.
-	    
-	    // Loop `from` to Zero seconds, counting down and displaying
-	    // it to the user in a centered TextView
-	    for (int i = 1; i <= COUNTDOWN_SECONDS; i++)
-	    	// Set text to i seconds, i * 1000ms from now.
-		    mHandler.postDelayed(deincrementCountdown, i * 1000);
+		mCountdownHandler.removeCallbacks(countdownTick);
+		mCountdownEnd = 0;
+		isCountdownPending = false;
 	}
 	
+	// Rebuilds the table once after a change of size, at the
+	// end of the layout pass that made it, keeping the board
+	// and any count down as they are.
+	private final Runnable rebuildTable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			isRebuildPending = false;
+			if (gameState != null && mTileSource != null && mTableLayout.getChildCount() > 0) drawTable();
+		}
+	};
+	
 	// Shuffles gameState.
 	private void shuffle(boolean mix)
 	{
-		gameState = new int[difficulty][difficulty];
+		gameState = new int[rows][difficulty];
 		int i = 0;
-		final int N = (difficulty * difficulty) -1;
+		final int N = (difficulty * rows) -1;
 			
 		if (!mix)
 		{
 			while (i < N)
 				gameState[(int)(i / difficulty)][i % difficulty] = ++i - 1;
-			gameState[difficulty-1][difficulty-1] = N;
+			gameState[rows-1][difficulty-1] = N;
 		}
 		else
 		{
-			byte[] arr = getRandomArray();
+			byte[] arr = getRandomArray(difficulty, rows);
 			for (int j = 0, e = arr.length; j < e; j++)
 				// Used to adapt to this application, whose pieces[] are
 				// in ascending order and the last piece is blank.
 				gameState[(int)(j / difficulty)][j % difficulty] = N - (int) arr[j];
 		}
+		
+		resetHeuristic();
+		startMoveLog();
+		if (mix && mEvents != null) mEvents.add(PuzzleEvents.SHUFFLE, NO_MOVE, -1, difficulty);
 	}
 	
 	/*
@@ -706,9 +1529,9 @@ public class NPuzzleView extends RelativeLayout
 	 */
 	
 	// Generate a random byte array of board state.
-	private static byte[] getRandomArray()
+	private static byte[] getRandomArray(final int width, final int height)
 	{
-		final int numOfTiles = difficulty * difficulty;
+		final int numOfTiles = width * height;
 		
         final byte[] tiles = new byte[numOfTiles];
         for (int i = numOfTiles - 2; i >= 0; --i)
@@ -745,7 +1568,7 @@ public class NPuzzleView extends RelativeLayout
             swap(rand1, rand2, tiles);
         }
         
-        if (!isValidPermutation(tiles))
+        if (!isValidPermutation(tiles, width, height))
         {
             if (tiles[0] != 0 && tiles[1] != 0)
             {
@@ -760,11 +1583,13 @@ public class NPuzzleView extends RelativeLayout
         return tiles;
     }
 
-	// Determine if byte array is a valid permutation.
-    private static boolean isValidPermutation(final byte[] state)
+	// Determine if byte array is a valid permutation, once shuffle()
+	// maps each tile t to piece (size - 1) - t, which reverses their
+	// order: so pairs in ascending order count as inversions, and the
+	// blank row is counted from the bottom, where it is solved.
+    private static boolean isValidPermutation(final byte[] state, final int width, final int height)
     {
-        final int numOfTiles = state.length,
-                  dim = difficulty;
+        final int numOfTiles = state.length;
         int inversions = 0;
 
         for (int i = 0; i < numOfTiles; ++i)
@@ -775,7 +1600,7 @@ public class NPuzzleView extends RelativeLayout
                 for (int j = i + 1; j < numOfTiles; ++j)
                 {
                     final byte jTile = state[j];
-                    if (jTile != 0 && jTile < iTile)
+                    if (jTile != 0 && jTile > iTile)
                     {
                     	++inversions;
                 	}
@@ -783,9 +1608,9 @@ public class NPuzzleView extends RelativeLayout
             }
             else
             {
-                if ((dim & 0x1) == 0)
+                if ((width & 0x1) == 0)
                 {
-                	inversions += (1 + i / dim);
+                	inversions += (height - 1 - i / width);
                 }
             }    
         }
@@ -805,7 +1630,7 @@ public class NPuzzleView extends RelativeLayout
 	// Check to see if the user has won the game.
 	private boolean hasWon()
 	{		
-		for (int i = 0; i < difficulty; i++)
+		for (int i = 0; i < rows; i++)
 		{
 			for (int e = 0; e < difficulty; e++)
 			{
@@ -819,6 +1644,263 @@ public class NPuzzleView extends RelativeLayout
 		return true;
 	}
 	
+	// ====================
+	//  Background Pieces
+	// ====================
+	
+	// Shows a placeholder, then has mTileSource load, or decode
+	// and cut, the pieces of the current size on another thread,
+	// drawing the table when they arrive. Waits for the view
+	// to have a size, as the pieces would be cut to fit it.
+	private void preparePieces()
+	{
+		mTableLayout.setBackgroundColor(PLACEHOLDER_COLOR);
+		if (mTileSource == null) return;
+		if (getWidth() == 0 || getHeight() == 0)
+		{
+			isPreparePending = true;
+			return;
+		}
+		
+		// Already on its way.
+		if (isPreparing && mPreparingDims[0] == dims[0] && mPreparingDims[1] == dims[1]
+				&& mPreparingDims[2] == difficulty && mPreparingDims[3] == rows) return;
+		
+		final int generation = ++mPrepareGeneration,
+				  width = mPreparingDims[0] = dims[0],
+				  height = mPreparingDims[1] = dims[1],
+				  N = mPreparingDims[2] = difficulty,
+				  M = mPreparingDims[3] = rows;
+		final TileSource source = mTileSource;
+		final TileCache cache = mTileCache;
+		final PuzzleMetrics metrics = mMetrics;
+		isPreparing = true;
+		
+		// The thread holds its own reference to the source.
+		source.retain();
+		
+		new Thread(new Runnable()
+		{
+			public void run()
+			{
+				// Time a decode on its own, unless the pieces are cached.
+				if (metrics != null && !source.isDecoded() && !source.isPrepared(width, height, N, M, BORDER_WIDTH, cache))
+				{
+					final long start = System.nanoTime();
+					final Bitmap image = source.getImage();
+					metrics.recordSince(PuzzleMetrics.DECODE, start);
+					if (image != null) metrics.recordBitmap(image.getRowBytes() * image.getHeight());
+				}
+				
+				final long start = (metrics == null) ? 0 : System.nanoTime();
+				TileSource.Tiles tiles = null;
+				try
+				{
+					tiles = source.acquire(width, height, N, M, BORDER_WIDTH, cache);
+				}
+				catch (RuntimeException e) {} // eg. the image could not be decoded.
+				if (metrics != null && tiles != null) metrics.recordSince(PuzzleMetrics.MAKE_PIECES, start);
+				
+				final TileSource.Tiles preparedTiles = tiles;
+				mPrepareHandler.post(new Runnable()
+				{
+					public void run()
+					{
+						piecesPrepared(generation, source, preparedTiles);
+					}
+				});
+			}
+		}, "NPuzzleView-pieces").start();
+	}
+	
+	// Takes pieces prepared in the background, on the UI thread.
+	private void piecesPrepared(int generation, TileSource source, TileSource.Tiles tiles)
+	{
+		// Drop the thread's reference, mTileSource holds its own.
+		if (tiles != null && generation != mPrepareGeneration) source.release(tiles);
+		source.release();
+		if (generation != mPrepareGeneration) return; // eg. the image changed or the view was detached.
+		
+		isPreparing = false;
+		if (tiles == null) return; // The image could not be decoded.
+		
+		// No table shows the old pieces yet, so they can go.
+		if (mTiles != null) mTileSource.release(mTiles);
+		mTiles = tiles;
+		if (mMetrics != null && !mTiles.isShared()) mMetrics.recordBitmap(mTiles.getByteCount());
+		
+		// Prepares again if the size changed meanwhile.
+		if (gameState != null) drawTable();
+		if (isCountdownPending && !isPreparing && !isPreparePending) countDown();
+	}
+	
+	// Drops any pieces being prepared.
+	private void cancelPrepare()
+	{
+		++mPrepareGeneration;
+		isPreparing = false;
+		isPreparePending = false;
+	}
+	
+	// ====================
+	//      Animation
+	// ====================
+	
+	// Pieces hide from the table's normal drawing while they
+	// slide, and are drawn by drawSlide() instead, so they
+	// keep taking taps and nothing is laid out again.
+	private static class PieceView extends ImageView
+	{
+		private boolean isSliding;
+		
+		public PieceView(Context context)
+		{
+			super(context);
+		}
+		
+		void setSliding(boolean sliding)
+		{
+			if (sliding == isSliding) return;
+			isSliding = sliding;
+			invalidate();
+		}
+		
+		@Override
+		public void draw(Canvas canvas)
+		{
+			if (!isSliding) super.draw(canvas);
+		}
+		
+		// Draws this piece wherever canvas has been translated to.
+		void drawSliding(Canvas canvas)
+		{
+			super.draw(canvas);
+		}
+	}
+	
+	// Slides the run of pieces just moved from their cells, or
+	// wherever they were already sliding, to the cells between
+	// blankPosition and position. A tap during a slide merges
+	// into it, every piece then finishing together.
+	private void slide(int blankPosition, int position, int direction)
+	{
+		final long now = SystemClock.uptimeMillis();
+		
+		// Rebase the current slide on now.
+		if (isSliding)
+		{
+			final float remaining = remaining(now);
+			for (int i = 0; i < mSlideX.length; i++)
+			{
+				mSlideX[i] *= remaining;
+				mSlideY[i] *= remaining;
+			}
+		}
+		
+		for (int step = blankPosition; step != position; )
+		{
+			final int from = PuzzleMoves.pieceFor(direction, step, difficulty, rows);
+			
+			mSlideX[step] = mSlideX[from] + (from % difficulty - step % difficulty) * pieceDims[0];
+			mSlideY[step] = mSlideY[from] + (from / difficulty - step / difficulty) * pieceDims[1];
+			mSlideX[from] = mSlideY[from] = 0;
+			((PieceView) getImageViewAt(step)).setSliding(mSlideX[step] != 0 || mSlideY[step] != 0);
+			
+			step = from;
+		}
+		((PieceView) getImageViewAt(position)).setSliding(false);
+		
+		if (!isSliding)
+		{
+			isSliding = true;
+			mLastFrame = 0;
+			setTableLayer(LAYER_TYPE_HARDWARE);
+		}
+		mSlideStart = now;
+		invalidate();
+	}
+	
+	// Fraction of the current slide's offsets left at now, easing out.
+	private float remaining(long now)
+	{
+		final float t = Math.min(1f, (now - mSlideStart) / (float) mSlideDuration);
+		return (1 - t) * (1 - t);
+	}
+	
+	// Draws each sliding piece at its offset, counts any
+	// frames missed since the last, and schedules the next.
+	private void drawSlide(Canvas canvas)
+	{
+		final long now = SystemClock.uptimeMillis();
+		if (mLastFrame != 0)
+		{
+			final long interval = now - mLastFrame;
+			final int missed = (int) ((interval + FRAME_MILLIS / 2) / FRAME_MILLIS) - 1;
+			if (missed > 0) mDroppedFrames += missed;
+			
+			if (mMetrics != null)
+			{
+				mMetrics.record(PuzzleMetrics.FRAME, interval * 1000000L);
+				if (missed > 0) mMetrics.recordDroppedFrames(missed);
+			}
+		}
+		mLastFrame = now;
+		
+		final float remaining = remaining(now);
+		final int left = mTableLayout.getLeft(), top = mTableLayout.getTop();
+		for (int i = 0; i < mSlideX.length; i++)
+		{
+			if (mSlideX[i] == 0 && mSlideY[i] == 0) continue;
+			
+			final View row = mTableLayout.getChildAt(i / difficulty);
+			final PieceView piece = (PieceView) getImageViewAt(i);
+			canvas.save();
+			canvas.translate(left + row.getLeft() + piece.getLeft() + mSlideX[i] * remaining,
+					top + row.getTop() + piece.getTop() + mSlideY[i] * remaining);
+			piece.drawSliding(canvas);
+			canvas.restore();
+		}
+		
+		if (remaining <= 0)
+			endSlide();
+		else
+			invalidate();
+	}
+	
+	// Puts every sliding piece back in its cell.
+	private void endSlide()
+	{
+		for (int i = 0; i < mSlideX.length; i++)
+		{
+			if (mSlideX[i] == 0 && mSlideY[i] == 0) continue;
+			
+			mSlideX[i] = mSlideY[i] = 0;
+			final ImageView piece = getImageViewAt(i);
+			if (piece != null) ((PieceView) piece).setSliding(false);
+		}
+		
+		isSliding = false;
+		mLastFrame = 0;
+		setTableLayer(LAYER_TYPE_NONE);
+	}
+	
+	// Puts the table on a hardware layer while pieces slide, so
+	// only they are drawn each frame. Does nothing before API 11.
+	private void setTableLayer(int type)
+	{
+		if (sSetLayerType == null) return;
+		
+		mLayerArgs[0] = type;
+		try
+		{
+			sSetLayerType.invoke(mTableLayout, mLayerArgs);
+		}
+		catch (Exception e)
+		{
+			sSetLayerType = null; // Not worth retrying every slide.
+		}
+	}
+	
 	// ====================
 	//       Clean Up
 	// ====================
@@ -828,13 +1910,52 @@ public class NPuzzleView extends RelativeLayout
 	{
 		super.onDetachedFromWindow();
 		
+		cancelPlayback();
+		cancelCountDown();
+		removeCallbacks(rebuildTable);
+		isRebuildPending = false;
 		this.removeAllViews();
 		
-		// Recycle bitmaps.
-		mBitmap.recycle();
-		mBlankBitmap.recycle();
-		metrics = null;
+		// Recycle bitmaps no other board is showing.
+		cancelPrepare();
+		releaseTiles();
 		mBorder = null;
+		cancelHint();
+	}
+	
+	// ====================
+	//  Save & Restore State
+	// ====================
+	
+	@Override
+	protected Parcelable onSaveInstanceState()
+	{
+		final Bundle state = new Bundle();
+		state.putParcelable(STATE_SUPER, super.onSaveInstanceState());
+		if (gameState != null)
+		{
+			// A count down is saved as its board's size, to start over.
+			state.putByteArray(STATE_BOARD, encodeState());
+			state.putBoolean(STATE_COUNTING, isCounting);
+		}
+		return state;
+	}
+	
+	@Override
+	protected void onRestoreInstanceState(Parcelable state)
+	{
+		if (!(state instanceof Bundle))
+		{
+			super.onRestoreInstanceState(state);
+			return;
+		}
+		
+		final Bundle bundle = (Bundle) state;
+		super.onRestoreInstanceState(bundle.getParcelable(STATE_SUPER));
+		
+		final byte[] board = bundle.getByteArray(STATE_BOARD);
+		if (board != null && importState(board) && bundle.getBoolean(STATE_COUNTING))
+			mix(true);
 	}
 	
 	// ====================
@@ -847,66 +1968,96 @@ public class NPuzzleView extends RelativeLayout
 	@Override
 	protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec)
 	{
-		super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+		final long start = (mMetrics == null) ? 0 : System.nanoTime();
 		
-		// Get window metrics such as height, width, etc.
-	    (((Activity) mContext).getWindowManager().getDefaultDisplay()).getMetrics(metrics);
+		// Only recomputes the geometry when the bounds, shape or image changed.
+		updateGeometry(widthMeasureSpec, heightMeasureSpec);
 		
-		// Calculate image dimensions based on original ones.
-		dims = imageDimensions(originalDims[0], originalDims[1]);
-		pieceDims[0] = (int) dims[0] / difficulty;
-		pieceDims[1] = (int) dims[1] / difficulty;
-		
-		final int rowWidthMeasureSpec = MeasureSpec.makeMeasureSpec(
-				pieceDims[0] * difficulty, MeasureSpec.EXACTLY),
-				tableHeightMeasureSpec = MeasureSpec.makeMeasureSpec(
-						pieceDims[1] * difficulty, MeasureSpec.EXACTLY),
-		imgWidthMeasureSpec = MeasureSpec.makeMeasureSpec(
-						pieceDims[0], MeasureSpec.EXACTLY),
-		imgHeightMeasureSpec = MeasureSpec.makeMeasureSpec(
-						pieceDims[1], MeasureSpec.EXACTLY);
-		
-		// Loop through every row in the table.
-		final int count = mTableLayout.getChildCount();
-		for (int i = 0; i < count; i++)
+		// Lay out the count down only if it changed, or along with new pieces.
+		if (!isTableMeasured || mCountdown.isLayoutRequested())
+			super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+		
+		// Measure every piece once per table and geometry.
+		if (!isTableMeasured)
 		{
-			final ViewGroup row = (ViewGroup) mTableLayout.getChildAt(i);
-			if (row.getVisibility() != View.GONE)
+			// Loop through every row in the table.
+			final int count = mTableLayout.getChildCount();
+			for (int i = 0; i < count; i++)
 			{
-				row.measure(rowWidthMeasureSpec, imgHeightMeasureSpec);
-				// Loop through every ImageView in the row.
-				final int rowCount = row.getChildCount();
-				for (int e = 0; e < rowCount; e++)
+				final ViewGroup row = (ViewGroup) mTableLayout.getChildAt(i);
+				if (row.getVisibility() != View.GONE)
 				{
-					final View img = row.getChildAt(e);
-					if (img.getVisibility() != View.GONE)
+					row.measure(mRowWidthSpec, mPieceHeightSpec);
+					// Loop through every ImageView in the row.
+					final int rowCount = row.getChildCount();
+					for (int e = 0; e < rowCount; e++)
 					{
-						img.measure(imgWidthMeasureSpec, imgHeightMeasureSpec);
+						final View img = row.getChildAt(e);
+						if (img.getVisibility() != View.GONE)
+						{
+							img.measure(mPieceWidthSpec, mPieceHeightSpec);
+						}
 					}
 				}
 			}
+			isTableMeasured = true;
 		}
 		
 		// Set the dimensions for this view & inner table layout.
-		mTableLayout.measure(rowWidthMeasureSpec, tableHeightMeasureSpec);
-		setMeasuredDimension(rowWidthMeasureSpec, tableHeightMeasureSpec);
+		mTableLayout.measure(mRowWidthSpec, mTableHeightSpec);
+		setMeasuredDimension(pieceDims[0] * difficulty, pieceDims[1] * rows);
+		
+		if (mMetrics != null) mMetrics.recordSince(PuzzleMetrics.MEASURE, start);
 	}
 	
-	// Handle when the layout needs to be resized.
+	// Draws sliding pieces over the table and completes
+	// the timing of a tap once its move is drawn.
 	@Override
-    protected void onSizeChanged(final int w, final int h, final int oldw, final int oldh)
+	protected void dispatchDraw(Canvas canvas)
+	{
+		super.dispatchDraw(canvas);
+		if (isSliding) drawSlide(canvas);
+		
+		if (mTapStart != 0 && mMetrics != null)
+		{
+			mMetrics.recordSince(PuzzleMetrics.TAP, mTapStart);
+			mTapStart = 0;
+		}
+		
+		// Time the first frame, and the first with pieces.
+		if (mStartupStart != 0)
+		{
+			if (!isFirstFrameDrawn)
+			{
+				isFirstFrameDrawn = true;
+				if (mMetrics != null) mMetrics.recordSince(PuzzleMetrics.FIRST_FRAME, mStartupStart);
+			}
+			if (mTableLayout.getChildCount() > 0)
+			{
+				if (mMetrics != null) mMetrics.recordSince(PuzzleMetrics.INTERACTIVE, mStartupStart);
+				mStartupStart = 0;
+			}
+		}
+	}
+	
+	// Handle when the layout needs to be resized, rebuilding
+	// the table once per real change, ie. only when the pieces
+	// shown no longer fit the size just measured.
+	@Override
+	protected void onSizeChanged(final int w, final int h, final int oldw, final int oldh)
 	{
 		super.onSizeChanged(w, h, oldw, oldh);
-		if (firstSizeChange)
+		
+		// The first real size starts preparing the pieces.
+		if (isPreparePending && w > 0 && h > 0)
 		{
-			firstSizeChange = false;
+			isPreparePending = false;
+			drawTable();
 			return;
 		}
+		if (isRebuildPending || mTiles == null || fits(mTiles)) return;
 		
-		// BEWARE OF THIS HACK!!!
-		// This is bad practice, but it works for now.
-		// A better solution is certainly needed though.
-		final Handler mHandler = new Handler();
-		mHandler.postDelayed(deincrementCountdownNoShuffle, 10);
-    }
+		isRebuildPending = true;
+		post(rebuildTable);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,815 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+// Java packages
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/*
+ * Disjoint additive pattern database. The pieces are split
+ * into patterns, and for each pattern a table holds the
+ * fewest moves of its own pieces needed to bring them home
+ * from every placement, ignoring all other pieces. Only
+ * moves of a pattern's pieces are counted, so the values of
+ * all patterns add up to an admissible estimate.
+ *
+ * A placement is indexed by the rank of the pattern's
+ * positions as a partial permutation. Tables are read only
+ * once built, so one instance may be shared by any number
+ * of solver threads, and load() maps them straight from disk.
+ * A rectangular board has as many placements as a square one
+ * of the same number of pieces, so a 3x5 board needs smaller
+ * tables than the 4x4 it would otherwise be padded to.
+ *
+ * Tables may be stored smaller by compress(), trading some
+ * of the estimate for bytes: NIBBLE caps each distance at
+ * 15 in half a byte, and MOD3 keeps only the distance mod 3
+ * in two bits, from which a solver tracking the distance of
+ * each pattern move by move recovers it exactly. That needs
+ * a move to change a distance by at most one, which a blank
+ * walled in by pattern pieces can break, so MOD3 tables are
+ * first lowered where they would. That lowering is not free:
+ * on random 4x4 boards a MOD3 table's mean estimate is only
+ * about 0.91 of the BYTE table's, and solves expand about
+ * ten times the nodes, so MOD3 suits devices short of memory
+ * rather than of time. PatternDatabaseReport measures each
+ * option. Either of BYTE and NIBBLE may also keep the
+ * minimum of each run of entries of neighbouring ranks, ie.
+ * placements differing in the position of the last piece of
+ * the pattern.
+ *
+ * A square board reflected across its main diagonal takes
+ * as many moves to solve, so with reflection enabled every
+ * estimate also looks up the reflected board, pieces and
+ * positions transposed, and takes the larger of the two.
+ */
+
+public class PatternDatabase
+{
+	public static final int BYTE = 0,						// Encodings of the tables, a distance per byte,
+							NIBBLE = 1,						// at most 15 per half byte,
+							MOD3 = 2;						// or mod 3 in two bits, weaker, see above.
+	private static final String[] ENCODING_NAMES = { "byte", "nibble", "mod3" };
+	private static final int MAGIC = 0x4e504442;			// "NPDB"
+	private static final int VERSION = 3;					// 2 held byte tables only, 1 square boards too.
+	private static final int UNSEEN = 0xFF;
+	public static final int MAX_WIDTH = 7;					// Widest square board open() builds, see isSupported().
+	private static final long MAX_SEARCH_STATES = 1L << 27;	// Of building every default pattern, a byte each.
+
+	private final int width, height, size;
+	private final int[][] patterns;							// Pieces of each pattern.
+	private final ByteBuffer[] tables;						// Distances, indexed by rank / compression.
+	private final int encoding, compression;				// Of the tables, compression entries per stored one.
+	private final int[] patternOf,							// Pattern of each piece, -1 for none.
+						reflection,							// Transposed position of each position, null unless square.
+						goals;								// Rank of each pattern's solved placement.
+	private final int[] neighbours;
+	private volatile boolean isReflected;
+
+	private PatternDatabase(int width, int height, int[][] patterns, ByteBuffer[] tables, int encoding, int compression)
+	{
+		this.width = width;
+		this.height = height;
+		size = width * height;
+		this.patterns = patterns;
+		this.tables = tables;
+		this.encoding = encoding;
+		this.compression = compression;
+		neighbours = PuzzleMoves.neighbours(width, height);
+
+		patternOf = new int[size];
+		Arrays.fill(patternOf, -1);
+		goals = new int[patterns.length];
+		for (int p = 0; p < patterns.length; p++)
+		{
+			for (int i = 0; i < patterns[p].length; i++)
+				patternOf[patterns[p][i]] = p;
+			goals[p] = rankState(patterns[p], size);
+		}
+
+		if (width == height)
+		{
+			reflection = new int[size];
+			for (int i = 0; i < size; i++)
+				reflection[i] = (i % width) * width + i / width;
+		}
+		else
+			reflection = null;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	// Number of bytes held by all tables.
+	public long getTableBytes()
+	{
+		long bytes = 0;
+		for (int i = 0; i < tables.length; i++)
+			bytes += tables[i].limit();
+
+		return bytes;
+	}
+
+	public int getEncoding()
+	{
+		return encoding;
+	}
+
+	public int getCompression()
+	{
+		return compression;
+	}
+
+	// Name of encoding, eg. for file names and reports.
+	public static String nameOf(int encoding)
+	{
+		return ENCODING_NAMES[encoding];
+	}
+
+	// Whether or not estimates also look up the board reflected across
+	// its main diagonal, off by default. Set before sharing the database.
+	public void setReflectionEnabled(boolean enabled)
+	{
+		if (enabled && reflection == null)
+			throw new IllegalArgumentException("Only square boards can be reflected");
+		isReflected = enabled;
+	}
+
+	public boolean isReflectionEnabled()
+	{
+		return isReflected;
+	}
+
+	// Sum of every pattern's distance, where positions[piece]
+	// is the position of each piece on the board, or with
+	// reflection the larger of it and the reflected board's.
+	// MOD3 tables walk back to the solved placement of each
+	// pattern, so solvers track the values move by move.
+	public int estimate(int[] positions)
+	{
+		int best = 0;
+		for (int lookup = 0; lookup < getLookups(); lookup++)
+		{
+			int total = 0;
+			for (int p = 0; p < patterns.length; p++)
+				total += value(p, lookup, positions);
+			if (total > best) best = total;
+		}
+
+		return best;
+	}
+
+	// ====================
+	//  Tracked Estimates
+	// ====================
+
+	// Lookups per estimate, two with reflection.
+	public int getLookups()
+	{
+		return isReflected ? 2 : 1;
+	}
+
+	public int getPatternCount()
+	{
+		return patterns.length;
+	}
+
+	// Pattern whose placement changes in lookup when piece moves, or -1.
+	public int patternOf(int piece, int lookup)
+	{
+		return patternOf[(lookup == 0) ? piece : reflection[piece]];
+	}
+
+	// Distance of pattern p in lookup of the board of positions.
+	public int value(int p, int lookup, int[] positions)
+	{
+		if (encoding == MOD3) return walkBack(p, lookup, positions);
+		return get(p, rank(p, lookup, positions));
+	}
+
+	// Distance of pattern p in lookup after a move of one of its
+	// pieces, which left positions, where previous was its distance
+	// before. O(pattern size) for every encoding.
+	public int next(int p, int lookup, int[] positions, int previous)
+	{
+		final int stored = get(p, rank(p, lookup, positions));
+		if (encoding != MOD3) return stored;
+
+		// A move changes the distance by at most one.
+		switch ((stored - previous % 3 + 3) % 3)
+		{
+			case 1: return previous + 1;
+			case 2: return previous - 1;
+			default: return previous;
+		}
+	}
+
+	// Rank of the placement of pattern p in lookup.
+	private int rank(int p, int lookup, int[] positions)
+	{
+		if (lookup == 0) return rank(patterns[p], positions, size);
+
+		// The reflected board holds piece q at the transposed position of piece q transposed.
+		final int[] pattern = patterns[p];
+		int rank = 0;
+		for (int i = 0; i < pattern.length; i++)
+		{
+			final int position = reflection[positions[reflection[pattern[i]]]];
+			int digit = position;
+			for (int j = 0; j < i; j++)
+				if (reflection[positions[reflection[pattern[j]]]] < position)
+					--digit;
+			rank = rank * (size - i) + digit;
+		}
+
+		return rank;
+	}
+
+	// Stored distance of the placement of rank in pattern p.
+	private int get(int p, int rank)
+	{
+		final int entry = (compression == 1) ? rank : rank / compression;
+		switch (encoding)
+		{
+			case NIBBLE: return (tables[p].get(entry >> 1) >> ((entry & 1) << 2)) & 0xF;
+			case MOD3: return (tables[p].get(entry >> 2) >> ((entry & 3) << 1)) & 3;
+			default: return tables[p].get(entry) & 0xFF;
+		}
+	}
+
+	// Distance of a MOD3 pattern, counting the moves of its pieces
+	// down to 0 at its solved placement: some move lowers a distance
+	// by one, and so is the one to the next lower residue.
+	private int walkBack(int p, int lookup, int[] positions)
+	{
+		final int[] pattern = patterns[p],
+					state = new int[pattern.length];
+		for (int i = 0; i < state.length; i++)
+			state[i] = (lookup == 0) ? positions[pattern[i]] : reflection[positions[reflection[pattern[i]]]];
+
+		int distance = 0;
+		for (int rank = rankState(state, size); rank != goals[p]; ++distance)
+		{
+			final int lower = (get(p, rank) + 2) % 3;
+			int next = -1;
+			for (int i = 0; i < state.length && next < 0; i++)
+			{
+				final int from = state[i];
+				for (int move = 0; move < PuzzleMoves.COUNT && next < 0; move++)
+				{
+					final int to = neighbours[(from << 2) | move];
+					if (to < 0 || isHeld(state, to)) continue;
+
+					state[i] = to;
+					final int moved = rankState(state, size);
+					if (get(p, moved) == lower)
+						next = moved;
+					else
+						state[i] = from;
+				}
+			}
+
+			if (next < 0) throw new IllegalStateException("Pattern " + p + " has no lower placement");
+			rank = next;
+		}
+
+		return distance;
+	}
+
+	private static boolean isHeld(int[] state, int position)
+	{
+		for (int i = 0; i < state.length; i++)
+			if (state[i] == position)
+				return true;
+
+		return false;
+	}
+
+	// ====================
+	//   Default Patterns
+	// ====================
+
+	// Splits the pieces of a width * width board into row order
+	// groups. Building them takes seconds up to 6x6, about 15s
+	// at 7x7 and a minute at 8x8, which isSupported() rejects.
+	public static int[][] defaultPatterns(int width)
+	{
+		return defaultPatterns(width, width);
+	}
+
+	public static int[][] defaultPatterns(int width, int height)
+	{
+		final int pieces = width * height - 1,
+				  group = (pieces <= 15) ? 5 : (pieces <= 24) ? 4 : 3,
+				  count = (pieces + group - 1) / group;
+		final int[][] patterns = new int[count][];
+
+		for (int p = 0, piece = 0; p < count; p++)
+		{
+			patterns[p] = new int[Math.min(group, pieces - piece)];
+			for (int i = 0; i < patterns[p].length; i++)
+				patterns[p][i] = piece++;
+		}
+
+		return patterns;
+	}
+
+	// Whether or not open() builds the default patterns of
+	// width x height. The search of each pattern allocates a
+	// byte per placement and blank position and visits each,
+	// so their total bounds both the memory and the time of a
+	// build: 25M at 4x4, 87M at 7x7, 336M at 8x8.
+	public static boolean isSupported(int width, int height)
+	{
+		if (width < 2 || height < 2 || width > 0xFF || height > 0xFF) return false;
+
+		final int size = width * height;
+		final int[][] patterns = defaultPatterns(width, height);
+		long states = 0;
+		for (int p = 0; p < patterns.length && states <= MAX_SEARCH_STATES; p++)
+		{
+			long pattern = size;
+			for (int i = 0; i < patterns[p].length && pattern <= MAX_SEARCH_STATES; i++)
+				pattern *= (size - i);
+			states += pattern;
+		}
+
+		return (states <= MAX_SEARCH_STATES);
+	}
+
+	// Loads the database of width from directory, or builds
+	// and saves it there if it is missing.
+	public static PatternDatabase open(File directory, int width) throws IOException
+	{
+		return open(directory, width, width);
+	}
+
+	public static PatternDatabase open(File directory, int width, int height) throws IOException
+	{
+		return open(directory, width, height, BYTE, 1);
+	}
+
+	// As open(), of tables stored in encoding with compression
+	// entries per stored one, see compress().
+	public static PatternDatabase open(File directory, int width, int height, int encoding, int compression)
+			throws IOException
+	{
+		final String stored = (encoding == BYTE && compression == 1) ? ""
+				: "-" + ENCODING_NAMES[encoding] + ((compression == 1) ? "" : "-min" + compression);
+		final File file = new File(directory, "npuzzle-" + width + "x" + height + stored + ".pdb");
+		if (file.exists()) return load(file);
+		if (!isSupported(width, height))
+			throw new IllegalArgumentException("No pattern database of " + width + "x" + height + " boards");
+
+		PatternDatabase database = build(width, height, defaultPatterns(width, height));
+		if (stored.length() > 0) database = database.compress(encoding, compression);
+		directory.mkdirs();
+		database.save(file);
+		return database;
+	}
+
+	// ====================
+	//     Construction
+	// ====================
+
+	// Builds every table by breadth first search back from the solved board.
+	public static PatternDatabase build(int width, int[][] patterns)
+	{
+		return build(width, width, patterns);
+	}
+
+	public static PatternDatabase build(int width, int height, int[][] patterns)
+	{
+		final ByteBuffer[] tables = new ByteBuffer[patterns.length];
+		for (int p = 0; p < patterns.length; p++)
+			tables[p] = ByteBuffer.wrap(buildTable(width, height, patterns[p]));
+
+		return new PatternDatabase(width, height, patterns, tables, BYTE, 1);
+	}
+
+	// Returns this BYTE database stored in encoding, each stored entry
+	// the minimum of compression neighbouring ones. MOD3 cannot be
+	// combined with compression, and costs estimate as well as the
+	// bytes it saves, see the class comment.
+	public PatternDatabase compress(int encoding, int compression)
+	{
+		if (this.encoding != BYTE || this.compression != 1)
+			throw new IllegalArgumentException("Already compressed");
+		if (encoding < BYTE || encoding > MOD3 || compression < 1 || (encoding == MOD3 && compression != 1))
+			throw new IllegalArgumentException("Bad encoding " + encoding + " with compression " + compression);
+
+		final ByteBuffer[] compressed = new ByteBuffer[patterns.length];
+		for (int p = 0; p < patterns.length; p++)
+		{
+			final int placements = placements(size, patterns[p].length),
+					  entries = (placements + compression - 1) / compression;
+			final ByteBuffer source = (encoding == MOD3) ? ByteBuffer.wrap(stepConsistent(p)) : tables[p];
+			final byte[] table = new byte[tableBytes(entries, encoding)];
+			for (int entry = 0; entry < entries; entry++)
+			{
+				int min = UNSEEN;
+				for (int rank = entry * compression; rank < (entry + 1) * compression && rank < placements; rank++)
+					min = Math.min(min, source.get(rank) & 0xFF);
+
+				if (encoding == NIBBLE)
+					table[entry >> 1] |= Math.min(min, 15) << ((entry & 1) << 2);
+				else if (encoding == MOD3)
+					table[entry >> 2] |= (min % 3) << ((entry & 3) << 1);
+				else
+					table[entry] = (byte) min;
+			}
+			compressed[p] = ByteBuffer.wrap(table);
+		}
+
+		final PatternDatabase database = new PatternDatabase(width, height, patterns, compressed, encoding, compression);
+		database.isReflected = isReflected;
+		return database;
+	}
+
+	// The largest table no greater than that of pattern p in which a
+	// move of a pattern piece changes the distance by at most one: each
+	// placement, in increasing order of distance, lowers any neighbour
+	// more than one above it. Every placement but the solved one keeps
+	// a neighbour one below, as the moves of its BYTE distance lead to.
+	private byte[] stepConsistent(int p)
+	{
+		final int[] state = new int[patterns[p].length];
+		final int placements = placements(size, state.length);
+		final byte[] table = new byte[placements];
+		final IntQueue[] buckets = new IntQueue[UNSEEN + 1];
+		for (int rank = 0; rank < placements; rank++)
+		{
+			table[rank] = tables[p].get(rank);
+			if (buckets[table[rank] & 0xFF] == null) buckets[table[rank] & 0xFF] = new IntQueue();
+			buckets[table[rank] & 0xFF].add(rank);
+		}
+
+		for (int distance = 0; distance < UNSEEN; distance++)
+		{
+			while (buckets[distance] != null && !buckets[distance].isEmpty())
+			{
+				final int rank = buckets[distance].remove();
+				if ((table[rank] & 0xFF) != distance) continue;	// Lowered since queued.
+
+				unrank(rank, state, size);
+				for (int i = 0; i < state.length; i++)
+				{
+					final int from = state[i];
+					for (int move = 0; move < PuzzleMoves.COUNT; move++)
+					{
+						final int to = neighbours[(from << 2) | move];
+						if (to < 0 || isHeld(state, to)) continue;
+
+						state[i] = to;
+						final int moved = rankState(state, size);
+						state[i] = from;
+						if ((table[moved] & 0xFF) <= distance + 1) continue;
+
+						table[moved] = (byte) (distance + 1);
+						if (buckets[distance + 1] == null) buckets[distance + 1] = new IntQueue();
+						buckets[distance + 1].add(moved);
+					}
+				}
+			}
+		}
+
+		return table;
+	}
+
+	// Bytes of a table of entries in encoding.
+	private static int tableBytes(int entries, int encoding)
+	{
+		switch (encoding)
+		{
+			case NIBBLE: return (entries + 1) / 2;
+			case MOD3: return (entries + 3) / 4;
+			default: return entries;
+		}
+	}
+
+	// 0-1 breadth first search over placements of the pattern's pieces
+	// plus the blank. Moving a pattern piece costs one, moving any other
+	// piece is free, and each placement keeps its cheapest blank position.
+	private static byte[] buildTable(int width, int height, int[] pattern)
+	{
+		final int size = width * height,
+				  k = pattern.length,
+				  placements = placements(size, k);
+		final byte[] table = new byte[placements],
+					 seen = new byte[placements * size];	// Distance of (placement, blank).
+		final int[] positions = new int[size],
+					state = new int[k],
+					neighbours = PuzzleMoves.neighbours(width, height);
+		Arrays.fill(table, (byte) UNSEEN);
+		Arrays.fill(seen, (byte) UNSEEN);
+
+		IntQueue current = new IntQueue(), next = new IntQueue();
+		for (int i = 0; i < k; i++)
+			positions[pattern[i]] = pattern[i];
+		final int start = rank(pattern, positions, size) * size + (size - 1);
+		seen[start] = 0;
+		current.add(start);
+
+		for (int depth = 0; !current.isEmpty(); depth++)
+		{
+			while (!current.isEmpty())
+			{
+				final int node = current.remove(),
+						  placement = node / size,
+						  blank = node % size;
+				if ((seen[node] & 0xFF) != depth) continue;	// Reached cheaper since queued.
+
+				if ((table[placement] & 0xFF) > depth)
+					table[placement] = (byte) depth;
+
+				unrank(placement, state, size);
+				for (int move = 0; move < PuzzleMoves.COUNT; move++)
+				{
+					final int from = neighbours[(blank << 2) | move];
+					if (from < 0) continue;
+
+					// Is a pattern piece sliding into the blank?
+					int moved = -1;
+					for (int i = 0; i < k; i++)
+						if (state[i] == from)
+							moved = i;
+
+					int nextPlacement = placement, cost = depth;
+					if (moved >= 0)
+					{
+						state[moved] = blank;
+						nextPlacement = rankState(state, size);
+						state[moved] = from;
+						++cost;
+					}
+
+					final int neighbour = nextPlacement * size + from;
+					if ((seen[neighbour] & 0xFF) <= cost) continue;
+					seen[neighbour] = (byte) cost;
+
+					if (cost == depth)
+						current.add(neighbour);
+					else
+						next.add(neighbour);
+				}
+			}
+
+			final IntQueue swap = current;
+			current = next;
+			next = swap;
+		}
+
+		return table;
+	}
+
+	// Number of placements of k pieces on size positions.
+	static int placements(int size, int k)
+	{
+		int count = 1;
+		for (int i = 0; i < k; i++)
+			count *= (size - i);
+
+		return count;
+	}
+
+	// Rank of the positions of pattern's pieces as a partial
+	// permutation, each position counted among those unused.
+	static int rank(int[] pattern, int[] positions, int size)
+	{
+		int rank = 0;
+		for (int i = 0; i < pattern.length; i++)
+		{
+			final int position = positions[pattern[i]];
+			int digit = position;
+			for (int j = 0; j < i; j++)
+				if (positions[pattern[j]] < position)
+					--digit;
+			rank = rank * (size - i) + digit;
+		}
+
+		return rank;
+	}
+
+	private static int rankState(int[] state, int size)
+	{
+		int rank = 0;
+		for (int i = 0; i < state.length; i++)
+		{
+			int digit = state[i];
+			for (int j = 0; j < i; j++)
+				if (state[j] < state[i])
+					--digit;
+			rank = rank * (size - i) + digit;
+		}
+
+		return rank;
+	}
+
+	// Inverse of rankState, each digit picks among the unused positions.
+	private static void unrank(int rank, int[] state, int size)
+	{
+		for (int i = state.length - 1; i >= 0; i--)
+		{
+			state[i] = rank % (size - i);
+			rank /= (size - i);
+		}
+
+		long used = 0;
+		for (int i = 0; i < state.length; i++)
+		{
+			int digit = state[i], position = 0;
+			while (((used >>> position) & 1) != 0 || digit-- > 0)
+				++position;
+			state[i] = position;
+			used |= 1L << position;
+		}
+	}
+
+	// ====================
+	//     Persistence
+	// ====================
+
+	// Writes the header and every table to file.
+	public void save(File file) throws IOException
+	{
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(encoding);
+			out.writeInt(compression);
+			out.writeInt(patterns.length);
+			for (int p = 0; p < patterns.length; p++)
+			{
+				out.writeInt(patterns[p].length);
+				for (int i = 0; i < patterns[p].length; i++)
+					out.writeInt(patterns[p][i]);
+			}
+
+			final byte[] chunk = new byte[1 << 16];
+			for (int p = 0; p < tables.length; p++)
+			{
+				final ByteBuffer table = tables[p].duplicate();
+				table.rewind();
+				while (table.hasRemaining())
+				{
+					final int length = Math.min(chunk.length, table.remaining());
+					table.get(chunk, 0, length);
+					out.write(chunk, 0, length);
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	// Maps file read only, the tables are paged in on demand
+	// and shared with every other process mapping the file.
+	// Throws IOException if the file is short or malformed.
+	public static PatternDatabase load(File file) throws IOException
+	{
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			final FileChannel channel = raf.getChannel();
+			final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			final int magic = map.getInt(), version = map.getInt();
+			if (magic != MAGIC || version < 1 || version > VERSION)
+				throw new IOException("Not a pattern database: " + file);
+
+			final int width = map.getInt(),
+					  height = (version == 1) ? width : map.getInt(),
+					  size = width * height,
+					  encoding = (version < 3) ? BYTE : map.getInt(),
+					  compression = (version < 3) ? 1 : map.getInt();
+			if (encoding < BYTE || encoding > MOD3 || compression < 1)
+				throw new IOException("Bad encoding of pattern database: " + file);
+			if (width < 2 || height < 2 || width > 0xFF || height > 0xFF)
+				throw new IOException("Bad size of pattern database: " + file);
+
+			final int count = map.getInt();
+			if (count < 1 || count >= size)
+				throw new IOException("Bad patterns of pattern database: " + file);
+			final int[][] patterns = new int[count][];
+			for (int p = 0; p < patterns.length; p++)
+			{
+				final int length = map.getInt();
+				if (length < 1 || length >= size)
+					throw new IOException("Bad patterns of pattern database: " + file);
+				patterns[p] = new int[length];
+				for (int i = 0; i < patterns[p].length; i++)
+				{
+					patterns[p][i] = map.getInt();
+					if (patterns[p][i] < 0 || patterns[p][i] >= size - 1)
+						throw new IOException("Bad patterns of pattern database: " + file);
+				}
+			}
+
+			final ByteBuffer[] tables = new ByteBuffer[patterns.length];
+			for (int p = 0; p < patterns.length; p++)
+			{
+				long placements = 1;
+				for (int i = 0; i < patterns[p].length && placements <= Integer.MAX_VALUE; i++)
+					placements *= (size - i);
+				if (placements > Integer.MAX_VALUE)
+					throw new IOException("Bad patterns of pattern database: " + file);
+
+				final int length = tableBytes((int) ((placements + compression - 1) / compression), encoding);
+				if (length > map.remaining())
+					throw new IOException("Truncated pattern database: " + file);
+				final ByteBuffer table = map.slice();
+				table.limit(length);
+				tables[p] = table;
+				map.position(map.position() + length);
+			}
+
+			return new PatternDatabase(width, height, patterns, tables, encoding, compression);
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IOException("Truncated pattern database: " + file);
+		}
+		finally
+		{
+			raf.close(); // The mapping stays valid after close.
+		}
+	}
+
+	// Growable FIFO of ints, for the search frontier.
+	private static final class IntQueue
+	{
+		private int[] items = new int[1024];
+		private int head, tail;
+
+		void add(int value)
+		{
+			if (tail == items.length)
+			{
+				if (head > items.length / 2)
+				{
+					System.arraycopy(items, head, items, 0, tail - head);
+					tail -= head;
+					head = 0;
+				}
+				else
+				{
+					final int[] grown = new int[items.length * 2];
+					System.arraycopy(items, head, grown, 0, tail - head);
+					tail -= head;
+					head = 0;
+					items = grown;
+				}
+			}
+
+			items[tail++] = value;
+		}
+
+		int remove()
+		{
+			return items[head++];
+		}
+
+		boolean isEmpty()
+		{
+			if (head == tail) head = tail = 0;
+			return (head == tail);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+/*
+ * Lehmer code ranking of boards. Each position holds the
+ * number of smaller pieces not yet placed, and the digits
+ * are read as a mixed radix number, giving every board of
+ * n pieces a distinct rank below n!. Ranks fit a long for
+ * boards of up to MAX_LONG_SIZE pieces, ie. 4x4 and 4x5.
+ * Larger boards pack the digits into a byte[] instead, each
+ * in just enough bits for its radix.
+ */
+
+public final class PermutationRank
+{
+	public static final int MAX_LONG_SIZE = 20;				// 20! < 2^63 < 21!
+
+	private PermutationRank() {}
+
+	// Rank of board, which must hold at most MAX_LONG_SIZE pieces.
+	public static long rank(int[] board)
+	{
+		final int n = board.length;
+		int used = 0;
+		long rank = 0;
+
+		for (int i = 0; i < n; i++)
+		{
+			final int piece = board[i];
+			rank = rank * (n - i) + (piece - Integer.bitCount(used & ((1 << piece) - 1)));
+			used |= 1 << piece;
+		}
+
+		return rank;
+	}
+
+	// Inverse of rank, fills board with the permutation of board.length pieces.
+	public static int[] unrank(long rank, int[] board)
+	{
+		final int n = board.length;
+
+		for (int i = n - 1; i >= 0; i--)
+		{
+			board[i] = (int) (rank % (n - i));
+			rank /= (n - i);
+		}
+
+		int used = 0;
+		for (int i = 0; i < n; i++)
+		{
+			int digit = board[i], piece = 0;
+			while (((used >>> piece) & 1) != 0 || digit-- > 0)
+				++piece;
+			board[i] = piece;
+			used |= 1 << piece;
+		}
+
+		return board;
+	}
+
+	// Lehmer digits of board, each bit packed, for boards of any size.
+	public static byte[] pack(int[] board)
+	{
+		final int n = board.length;
+		final long[] used = new long[(n + 63) >> 6];
+		final byte[] packed = new byte[(packedBits(n) + 7) >> 3];
+		int bit = 0;
+
+		for (int i = 0; i < n; i++)
+		{
+			final int piece = board[i];
+
+			// Count the smaller pieces already placed.
+			int smaller = 0;
+			for (int w = 0; w < (piece >> 6); w++)
+				smaller += Long.bitCount(used[w]);
+			smaller += Long.bitCount(used[piece >> 6] & ((1L << (piece & 63)) - 1));
+			used[piece >> 6] |= 1L << (piece & 63);
+
+			final int digit = piece - smaller;
+			for (int b = 0, bits = bitsFor(n - i); b < bits; b++, bit++)
+				if (((digit >>> b) & 1) != 0)
+					packed[bit >> 3] |= 1 << (bit & 7);
+		}
+
+		return packed;
+	}
+
+	// Inverse of pack, fills board with the permutation of board.length pieces.
+	// Throws IllegalArgumentException if a digit is out of range.
+	public static int[] unpack(byte[] packed, int[] board)
+	{
+		final int n = board.length;
+		final long[] used = new long[(n + 63) >> 6];
+		int bit = 0;
+
+		for (int i = 0; i < n; i++)
+		{
+			int digit = 0;
+			for (int b = 0, bits = bitsFor(n - i); b < bits; b++, bit++)
+				if ((packed[bit >> 3] & (1 << (bit & 7))) != 0)
+					digit |= 1 << b;
+
+			if (digit >= n - i)
+				throw new IllegalArgumentException("Corrupt permutation digit " + digit + " at " + i);
+
+			// The digit-th piece not yet placed.
+			int piece = 0;
+			while (((used[piece >> 6] >>> (piece & 63)) & 1) != 0 || digit-- > 0)
+				++piece;
+			used[piece >> 6] |= 1L << (piece & 63);
+			board[i] = piece;
+		}
+
+		return board;
+	}
+
+	// Number of bits pack uses for a board of n pieces.
+	public static int packedBits(int n)
+	{
+		int bits = 0;
+		for (int radix = n; radix > 1; radix--)
+			bits += bitsFor(radix);
+
+		return bits;
+	}
+
+	// Bits to hold a digit below radix.
+	private static int bitsFor(int radix)
+	{
+		return 32 - Integer.numberOfLeadingZeros(radix - 1);
+	}
+}
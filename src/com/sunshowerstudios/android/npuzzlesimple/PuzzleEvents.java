@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+// Java packages
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Android packages
+import android.os.Handler;
+import android.os.SystemClock;
+
+/*
+ * Stream of what happens in an NPuzzleView: moves, undo and
+ * redo, shuffles, count down ticks and the solve. Events are
+ * written into preallocated parallel arrays of a ring buffer,
+ * and handed to the Listener in batches at most once a frame,
+ * on the thread of the Handler given, so a run of moves costs
+ * one callback and no objects.
+ *
+ * The view is the only writer and the Handler's thread the
+ * only reader. If the reader falls a whole ring behind, new
+ * events are dropped and counted rather than blocking play.
+ */
+
+public class PuzzleEvents
+{
+	public static final int MOVE = 0,						// A piece moved: move, piece & moves after.
+							UNDO = 1,						// A move taken back: the move undone, piece & moves after.
+							REDO = 2,						// An undone move played again, as MOVE.
+							SHUFFLE = 3,					// A new shuffled board: difficulty in value.
+							COUNTDOWN = 4,					// A count down tick: seconds left in value.
+							SOLVE = 5;						// Solved: moves in value.
+	public static final int CAPACITY = 512;					// Events in the ring, a power of two.
+	private static final int FRAME_MILLIS = 16;				// Events are batched for about a frame.
+
+	// Reads each batch with the getters, indices 0 to count - 1, during
+	// the call. The events are overwritten once it returns.
+	public static interface Listener
+	{
+		public void onEvents(PuzzleEvents events, int count);
+	}
+
+	private final int[] types = new int[CAPACITY],
+						moves = new int[CAPACITY],
+						pieces = new int[CAPACITY],
+						values = new int[CAPACITY];
+	private final long[] times = new long[CAPACITY];
+	private volatile int head, tail;						// Next event to read, and to write.
+	private int batchStart, batchDropped;
+	private final AtomicInteger dropped = new AtomicInteger();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final Listener listener;
+	private final Handler handler;
+
+	public PuzzleEvents(Listener listener, Handler handler)
+	{
+		this.listener = listener;
+		this.handler = handler;
+	}
+
+	// ====================
+	//       Writing
+	// ====================
+
+	// Adds an event, and schedules delivery if none is pending.
+	void add(int type, int move, int piece, int value)
+	{
+		final int t = tail;
+		if (t - head == CAPACITY)
+		{
+			dropped.incrementAndGet();
+		}
+		else
+		{
+			final int slot = t & (CAPACITY - 1);
+			types[slot] = type;
+			moves[slot] = move;
+			pieces[slot] = piece;
+			values[slot] = value;
+			times[slot] = SystemClock.uptimeMillis();
+			tail = t + 1;	// Publishes the slot.
+		}
+
+		if (scheduled.compareAndSet(false, true))
+			handler.postDelayed(deliver, FRAME_MILLIS);
+	}
+
+	// Drops undelivered events, eg. when the listener is replaced.
+	void cancel()
+	{
+		handler.removeCallbacks(deliver);
+	}
+
+	private final Runnable deliver = new Runnable()
+	{
+		public void run()
+		{
+			// Clear first, so an event added while reading schedules another run.
+			scheduled.set(false);
+
+			final int end = tail;
+			batchStart = head;
+			batchDropped = dropped.getAndSet(0);
+			if (end != batchStart || batchDropped != 0)
+				listener.onEvents(PuzzleEvents.this, end - batchStart);
+
+			head = end;	// Frees the slots.
+		}
+	};
+
+	// ====================
+	//       Reading
+	// ====================
+
+	public int getType(int i)
+	{
+		return types[(batchStart + i) & (CAPACITY - 1)];
+	}
+
+	// The move, see NPuzzleView.MOVE_UP etc., or NO_MOVE.
+	public int getMove(int i)
+	{
+		return moves[(batchStart + i) & (CAPACITY - 1)];
+	}
+
+	// The piece moved, or -1.
+	public int getPiece(int i)
+	{
+		return pieces[(batchStart + i) & (CAPACITY - 1)];
+	}
+
+	public int getValue(int i)
+	{
+		return values[(batchStart + i) & (CAPACITY - 1)];
+	}
+
+	// SystemClock.uptimeMillis() of the event.
+	public long getTime(int i)
+	{
+		return times[(batchStart + i) & (CAPACITY - 1)];
+	}
+
+	// Events dropped since the last batch because the ring was full.
+	public int getDropped()
+	{
+		return batchDropped;
+	}
+}
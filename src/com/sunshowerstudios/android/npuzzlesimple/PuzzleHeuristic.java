@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * Manhattan distance plus linear conflict estimate of the
+ * moves left to solve a board, and a Zobrist hash of it,
+ * both kept up to date in O(1) per move. Each row and
+ * column is encoded as a base (length + 1) key, one digit
+ * per position holding the goal offset + 1 of a piece that
+ * belongs to that line (or 0), so a move changes at most
+ * four digits and the conflict of a line is a table lookup.
+ * Rows are width long and columns height long.
+ *
+ * Lines longer than MAX_TABLE_WIDTH have no table, and their
+ * keys would overflow an int from 10 positions on, so they
+ * keep the same digits in an array instead and the conflict
+ * of a line is recomputed when it changes.
+ */
+
+public class PuzzleHeuristic
+{
+	private static final int MAX_TABLE_WIDTH = 6;			// Longest line with a precomputed conflict table.
+	private static final long ZOBRIST_SEED = 0x5eed15L;		// Fixed, so hashes are stable between runs.
+	private static final byte[][] sConflictTables			// Linear conflict of every line key, per length.
+					= new byte[MAX_TABLE_WIDTH + 1][];
+	private static final long[][] sZobristTables			// Random keys of [piece * size + position], per size.
+					= new long[64][];
+
+	private final int width, height, size;
+	private final int[] rowPow,								// Powers of (width + 1), the row key digits,
+						colPow,								// and of (height + 1), the column key digits.
+						rowKeys, colKeys;					// Encoded lines.
+	private final byte[] rowConflicts, colConflicts;		// Null when longer than MAX_TABLE_WIDTH,
+	private final int[][] rowDigits, colDigits;				// when these hold the digits instead.
+	private final int[] longest;							// Scratch of computeConflict().
+	private final long[] zobrist;
+	private int manhattan, conflicts;
+	private long hash;
+
+	public PuzzleHeuristic(int width)
+	{
+		this(width, width);
+	}
+
+	public PuzzleHeuristic(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		size = width * height;
+		rowConflicts = conflictTable(width);
+		colConflicts = conflictTable(height);
+		rowPow = (rowConflicts != null) ? powers(width) : null;
+		colPow = (colConflicts != null) ? powers(height) : null;
+		rowKeys = new int[height];
+		colKeys = new int[width];
+		rowDigits = (rowConflicts != null) ? null : new int[height][width];
+		colDigits = (colConflicts != null) ? null : new int[width][height];
+		longest = new int[Math.max(width, height)];
+
+		zobrist = zobristTable(size);
+	}
+
+	// Powers of (length + 1), one per position of a line.
+	private static int[] powers(int length)
+	{
+		final int[] pow = new int[length];
+		pow[0] = 1;
+		for (int i = 1; i < length; i++)
+			pow[i] = pow[i - 1] * (length + 1);
+
+		return pow;
+	}
+
+	// Recomputes everything from board, O(size).
+	public void reset(int[] board)
+	{
+		manhattan = conflicts = 0;
+		hash = 0;
+		for (int i = 0; i < height; i++)
+		{
+			rowKeys[i] = 0;
+			if (rowDigits != null) Arrays.fill(rowDigits[i], 0);
+		}
+		for (int i = 0; i < width; i++)
+		{
+			colKeys[i] = 0;
+			if (colDigits != null) Arrays.fill(colDigits[i], 0);
+		}
+
+		final int blankTile = size - 1;
+		for (int i = 0; i < size; i++)
+		{
+			if (board[i] != blankTile)
+				place(board[i], i, 1);
+		}
+	}
+
+	// Updates the estimate for piece sliding from `from`
+	// into the blank piece at `to`, O(1).
+	public void moveTile(int piece, int from, int to)
+	{
+		place(piece, from, -1);
+		place(piece, to, 1);
+	}
+
+	// Manhattan distance plus linear conflict, a lower
+	// bound on the moves left. Zero only when solved.
+	public int getEstimate()
+	{
+		return manhattan + conflicts;
+	}
+
+	public int getManhattan()
+	{
+		return manhattan;
+	}
+
+	public int getConflicts()
+	{
+		return conflicts;
+	}
+
+	// Zobrist hash of the board, the blank is implied.
+	public long getHash()
+	{
+		return hash;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	// Adds (sign 1) or removes (sign -1) piece at position.
+	private void place(int piece, int position, int sign)
+	{
+		final int row = position / width,
+				  col = position % width,
+				  goalRow = piece / width,
+				  goalCol = piece % width;
+
+		manhattan += sign * (Math.abs(row - goalRow) + Math.abs(col - goalCol));
+		hash ^= zobrist[piece * size + position];
+
+		if (row == goalRow)
+		{
+			if (rowDigits == null)
+			{
+				conflicts -= rowConflicts[rowKeys[row]];
+				rowKeys[row] += sign * (goalCol + 1) * rowPow[col];
+				conflicts += rowConflicts[rowKeys[row]];
+			}
+			else
+			{
+				conflicts -= computeConflict(rowDigits[row], longest);
+				rowDigits[row][col] = (sign > 0) ? goalCol + 1 : 0;
+				conflicts += computeConflict(rowDigits[row], longest);
+			}
+		}
+
+		if (col == goalCol)
+		{
+			if (colDigits == null)
+			{
+				conflicts -= colConflicts[colKeys[col]];
+				colKeys[col] += sign * (goalRow + 1) * colPow[row];
+				conflicts += colConflicts[colKeys[col]];
+			}
+			else
+			{
+				conflicts -= computeConflict(colDigits[col], longest);
+				colDigits[col][row] = (sign > 0) ? goalRow + 1 : 0;
+				conflicts += computeConflict(colDigits[col], longest);
+			}
+		}
+	}
+
+	// Linear conflict of one line: every piece that must leave the line
+	// so the rest are in goal order costs two moves, so twice the number
+	// of pieces outside the longest increasing run of goal offsets.
+	// digits are those of a line key, longest at least as long.
+	private static int computeConflict(int[] digits, int[] longest)
+	{
+		int count = 0, best = 0;
+
+		for (int i = 0; i < digits.length; i++)
+		{
+			if (digits[i] == 0) continue;
+
+			longest[i] = 1;
+			for (int j = 0; j < i; j++)
+				if (digits[j] != 0 && digits[j] < digits[i] && longest[j] + 1 > longest[i])
+					longest[i] = longest[j] + 1;
+			if (longest[i] > best)
+				best = longest[i];
+			++count;
+		}
+
+		return 2 * (count - best);
+	}
+
+	// As above, of a line key.
+	private static int computeConflict(int key, int width)
+	{
+		final int[] digits = new int[width];
+		for (int p = 0; p < width; p++, key /= (width + 1))
+			digits[p] = key % (width + 1);
+
+		return computeConflict(digits, new int[width]);
+	}
+
+	private static synchronized byte[] conflictTable(int width)
+	{
+		if (width > MAX_TABLE_WIDTH) return null;
+
+		if (sConflictTables[width] == null)
+		{
+			int keys = 1;
+			for (int i = 0; i < width; i++)
+				keys *= (width + 1);
+
+			final byte[] table = new byte[keys];
+			for (int key = 0; key < keys; key++)
+				table[key] = (byte) computeConflict(key, width);
+			sConflictTables[width] = table;
+		}
+
+		return sConflictTables[width];
+	}
+
+	private static synchronized long[] zobristTable(int size)
+	{
+		if (size >= sZobristTables.length)
+			return makeZobristTable(size);
+
+		if (sZobristTables[size] == null)
+			sZobristTables[size] = makeZobristTable(size);
+
+		return sZobristTables[size];
+	}
+
+	private static long[] makeZobristTable(int size)
+	{
+		final Random random = new Random(ZOBRIST_SEED + size);
+		final long[] table = new long[size * size];
+		for (int i = 0; i < table.length; i++)
+			table[i] = random.nextLong();
+
+		return table;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+/*
+ * Timings and counts of NPuzzleView's work, for telemetry.
+ * Attach one with NPuzzleView.setMetrics(), a view without
+ * one only checks for null. Each timing keeps a count, a
+ * total, a maximum and a histogram of power of two buckets
+ * of microseconds, so recording is a few additions with no
+ * allocation. A Listener sees every sample as it happens,
+ * on the thread that recorded it: pieces prepared before
+ * the first board are timed on a background thread.
+ */
+
+public class PuzzleMetrics
+{
+	public static final int DECODE = 0,						// Image decode of setImageUri().
+							MAKE_PIECES = 1,				// Scaling & slicing the image.
+							DRAW_TABLE = 2,					// Building the table of pieces.
+							MEASURE = 3,					// One onMeasure() pass.
+							TAP = 4,						// Tap to the next draw of the board.
+							FRAME = 5,						// Interval between frames of a slide.
+							FIRST_FRAME = 6,				// init() to the view's first frame.
+							INTERACTIVE = 7,				// init() to the first frame with pieces.
+							COUNT = 8;
+	public static final int BUCKETS = 32;					// Bucket b holds samples below 2^b microseconds.
+	private static final String[] NAMES = { "decode", "makePieces", "drawTable", "measure", "tap", "frame", "firstFrame", "interactive" };
+
+	// Receives samples as they are recorded, eg. to forward them.
+	public static interface Listener
+	{
+		public void onTiming(int metric, long nanos);
+		public void onBitmapAllocated(int bytes);
+		public void onFramesDropped(int frames);
+	}
+
+	private final long[] counts = new long[COUNT],
+						 totals = new long[COUNT],
+						 maxima = new long[COUNT],
+						 histograms = new long[COUNT * BUCKETS];
+	private long bitmapBytes, bitmaps, droppedFrames;
+	private Listener listener;
+
+	public synchronized void setListener(Listener listener)
+	{
+		this.listener = listener;
+	}
+
+	// Name of metric, eg. for telemetry keys.
+	public static String nameOf(int metric)
+	{
+		return NAMES[metric];
+	}
+
+	// ====================
+	//      Recording
+	// ====================
+
+	// Records the time from start, a System.nanoTime(), until now.
+	public void recordSince(int metric, long start)
+	{
+		record(metric, System.nanoTime() - start);
+	}
+
+	public synchronized void record(int metric, long nanos)
+	{
+		++counts[metric];
+		totals[metric] += nanos;
+		if (nanos > maxima[metric]) maxima[metric] = nanos;
+
+		final int bucket = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+		++histograms[metric * BUCKETS + Math.min(bucket, BUCKETS - 1)];
+
+		if (listener != null) listener.onTiming(metric, nanos);
+	}
+
+	public synchronized void recordBitmap(int bytes)
+	{
+		++bitmaps;
+		bitmapBytes += bytes;
+
+		if (listener != null) listener.onBitmapAllocated(bytes);
+	}
+
+	// Records frames missed between two frames of a slide.
+	public synchronized void recordDroppedFrames(int frames)
+	{
+		droppedFrames += frames;
+
+		if (listener != null) listener.onFramesDropped(frames);
+	}
+
+	public synchronized void reset()
+	{
+		for (int i = 0; i < COUNT; i++)
+			counts[i] = totals[i] = maxima[i] = 0;
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i] = 0;
+		bitmapBytes = bitmaps = droppedFrames = 0;
+	}
+
+	// ====================
+	//       Reading
+	// ====================
+
+	public synchronized long getCount(int metric)
+	{
+		return counts[metric];
+	}
+
+	public synchronized long getTotalNanos(int metric)
+	{
+		return totals[metric];
+	}
+
+	public synchronized long getMaxNanos(int metric)
+	{
+		return maxima[metric];
+	}
+
+	// Copies the BUCKETS counts of metric into out.
+	public synchronized long[] getHistogram(int metric, long[] out)
+	{
+		System.arraycopy(histograms, metric * BUCKETS, out, 0, BUCKETS);
+		return out;
+	}
+
+	// Upper bound in nanoseconds of the fraction (0 to 1) of samples
+	// of metric, to within its power of two bucket.
+	public synchronized long getPercentileNanos(int metric, double fraction)
+	{
+		final long target = (long) Math.ceil(counts[metric] * fraction);
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++)
+		{
+			seen += histograms[metric * BUCKETS + b];
+			if (seen >= target && seen > 0)
+				return Math.min((1L << b) * 1000, maxima[metric]);
+		}
+
+		return maxima[metric];
+	}
+
+	// Bytes of every bitmap the view has allocated.
+	public synchronized long getBitmapBytes()
+	{
+		return bitmapBytes;
+	}
+
+	public synchronized long getBitmapCount()
+	{
+		return bitmaps;
+	}
+
+	// Frames missed while pieces were sliding.
+	public synchronized long getDroppedFrames()
+	{
+		return droppedFrames;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < COUNT; i++)
+		{
+			if (counts[i] == 0) continue;
+			builder.append(NAMES[i]).append(": n=").append(counts[i])
+				.append(" mean=").append(totals[i] / counts[i] / 1000)
+				.append("us p90<=").append(getPercentileNanos(i, 0.9) / 1000)
+				.append("us max=").append(maxima[i] / 1000).append("us\n");
+		}
+
+		return builder.append("bitmaps: n=").append(bitmaps).append(" bytes=").append(bitmapBytes)
+			.append("\ndropped frames: ").append(droppedFrames).toString();
+	}
+}
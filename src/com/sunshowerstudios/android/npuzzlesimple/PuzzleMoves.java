@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+/*
+ * Moves of the nPuzzle, shared by NPuzzleView and the
+ * solver. A move is named by the direction the piece
+ * slides into the blank piece. Boards are flat arrays
+ * in row order, where piece i belongs at position i
+ * and the last piece (width * height - 1) is the blank.
+ * Methods without a height are for square boards.
+ */
+
+public final class PuzzleMoves
+{
+	public static final int NONE = -1,
+							UP = 0,
+							DOWN = 1,
+							RIGHT = 2,
+							LEFT = 3,
+							COUNT = 4;
+
+	private PuzzleMoves() {}
+
+	// Returns the move that undoes move.
+	public static int opposite(int move)
+	{
+		return move ^ 1;
+	}
+
+	// Returns the position of the piece that move would
+	// slide into blank, or -1 if there is no such piece.
+	public static int pieceFor(int move, int blank, int width)
+	{
+		return pieceFor(move, blank, width, width);
+	}
+
+	public static int pieceFor(int move, int blank, int width, int height)
+	{
+		if ((move & ~3) != 0) return -1;
+		return adjacency(width, height).neighbours[(blank << 2) | move];
+	}
+
+	// Table of pieceFor, the piece position of [(blank << 2) | move]
+	// or -1. Shared and read only, for loops that move many times.
+	public static int[] neighbours(int width)
+	{
+		return adjacency(width, width).neighbours;
+	}
+
+	public static int[] neighbours(int width, int height)
+	{
+		return adjacency(width, height).neighbours;
+	}
+
+	// Writes the moves that slide a piece into the blank piece of
+	// board into out, which must hold COUNT, and returns how many.
+	public static int legalMoves(int[] board, int width, int[] out)
+	{
+		return legalMoves(findBlank(board), width, board.length / width, out);
+	}
+
+	// Writes the moves that slide a piece into blank into out,
+	// which must hold COUNT, and returns how many.
+	public static int legalMoves(int blank, int width, int[] out)
+	{
+		return legalMoves(blank, width, width, out);
+	}
+
+	public static int legalMoves(int blank, int width, int height, int[] out)
+	{
+		final Adjacency adjacency = adjacency(width, height);
+		final int count = adjacency.counts[blank];
+		System.arraycopy(adjacency.moves, blank << 2, out, 0, count);
+		return count;
+	}
+
+	// ====================
+	//   Adjacency Tables
+	// ====================
+
+	// Legal moves and their piece positions of every blank
+	// position of one shape, built once on first use.
+	private static final class Adjacency
+	{
+		final int[] neighbours, moves;
+		final byte[] counts;
+
+		Adjacency(int width, int height)
+		{
+			final int size = width * height;
+			neighbours = new int[size << 2];
+			moves = new int[size << 2];
+			counts = new byte[size];
+
+			for (int blank = 0; blank < size; blank++)
+			{
+				final int row = blank / width, col = blank % width;
+				neighbours[(blank << 2) | UP] = (row < height - 1) ? blank + width : -1;
+				neighbours[(blank << 2) | DOWN] = (row > 0) ? blank - width : -1;
+				neighbours[(blank << 2) | RIGHT] = (col > 0) ? blank - 1 : -1;
+				neighbours[(blank << 2) | LEFT] = (col < width - 1) ? blank + 1 : -1;
+
+				for (int move = 0; move < COUNT; move++)
+					if (neighbours[(blank << 2) | move] >= 0)
+						moves[(blank << 2) | counts[blank]++] = move;
+			}
+		}
+	}
+
+	private static volatile Adjacency[][] tables = new Adjacency[8][];	// By width, then height.
+
+	private static Adjacency adjacency(int width, int height)
+	{
+		final Adjacency[][] current = tables;
+		if (width < current.length && current[width] != null
+				&& height < current[width].length && current[width][height] != null)
+			return current[width][height];
+
+		synchronized (PuzzleMoves.class)
+		{
+			// Publish new arrays, so readers never see a half built table.
+			final Adjacency[][] copy = new Adjacency[Math.max(width + 1, tables.length)][];
+			System.arraycopy(tables, 0, copy, 0, tables.length);
+
+			final Adjacency[] heights = (copy[width] == null) ? new Adjacency[0] : copy[width];
+			if (height < heights.length && heights[height] != null)
+				return heights[height];
+
+			copy[width] = new Adjacency[Math.max(height + 1, heights.length)];
+			System.arraycopy(heights, 0, copy[width], 0, heights.length);
+			copy[width][height] = new Adjacency(width, height);
+			tables = copy;
+
+			return copy[width][height];
+		}
+	}
+
+	// Returns the position of the blank piece.
+	public static int findBlank(int[] board)
+	{
+		final int blankTile = board.length - 1;
+		for (int i = 0; i < board.length; i++)
+			if (board[i] == blankTile)
+				return i;
+
+		return -1;
+	}
+
+	// Whether or not board, of any height, can reach the solved state.
+	// Each vertical move changes the inversion count by width - 1, so
+	// for odd widths inversions stay even, and for even widths
+	// inversions plus the blank's row distance from the bottom stay even.
+	public static boolean isSolvable(int[] board, int width)
+	{
+		final int blankTile = board.length - 1;
+		int inversions = 0, blank = -1;
+
+		for (int i = 0; i < board.length; i++)
+		{
+			if (board[i] == blankTile)
+			{
+				blank = i;
+				continue;
+			}
+
+			for (int j = i + 1; j < board.length; j++)
+				if (board[j] != blankTile && board[j] < board[i])
+					++inversions;
+		}
+
+		if ((width & 0x1) == 0)
+			inversions += (board.length / width - 1) - (blank / width);
+
+		return ((inversions & 0x1) == 0);
+	}
+}
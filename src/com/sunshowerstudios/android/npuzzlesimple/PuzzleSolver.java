@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+// Java packages
+import java.io.IOException;
+
+/*
+ * Optimal IDA* solver guided by PuzzleHeuristic, and by a
+ * PatternDatabase and WalkingDistance when they are set,
+ * taking the largest. The board is searched in place, one move applied and
+ * undone at a time, so a search allocates nothing beyond its
+ * path. Not thread safe, use one solver per thread; a
+ * PatternDatabase or SolutionCache may be shared between solvers.
+ * 4x4 boards are searched by a BitboardSolver unless disabled,
+ * walking distance is enabled or a PatternDatabase is set: only
+ * this search tracks the distance of each pattern move by move,
+ * so a node looks up only the pattern of the piece that moved.
+ * Boards may be rectangular, width pieces wide and height high.
+ * Each solve records its SolverStats, and stops early on the
+ * node budget, a CancellationToken or a time limit.
+ */
+
+public class PuzzleSolver
+{
+	private final int width, height, size;
+	private final int[] board,
+						positions,							// Position of each piece, for the PatternDatabase.
+						neighbours;							// PuzzleMoves.neighbours(width, height).
+	private final PuzzleHeuristic heuristic;
+	private WalkingDistance walking;						// Null unless enabled.
+	private PatternDatabase database;
+	private int[] patternValues = new int[0],				// Distance of each [lookup * patterns + pattern],
+				  lookupTotals = new int[0];				// and their sum per lookup.
+	private int lookups;
+	private SolutionCache cache;
+	private BitboardSolver bitboard;						// Null unless the board is 4x4.
+	private int[] path = new int[128];						// Moves of the current search branch.
+	private int blank, length, nextBound;
+	private long nodes, maxNodes = Long.MAX_VALUE;
+	private long evaluations, tableLookups;					// Of the current solve, for the stats.
+	private boolean exhausted;								// Whether or not a limit stopped the search.
+	private final SolverStats stats = new SolverStats();
+	private CancellationToken token;
+	private long timeLimit;									// Milliseconds per solve, 0 for none.
+	private SolverStats.Listener listener;
+
+	public PuzzleSolver(int width)
+	{
+		this(width, width);
+	}
+
+	public PuzzleSolver(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		size = width * height;
+		board = new int[size];
+		positions = new int[size];
+		neighbours = PuzzleMoves.neighbours(width, height);
+		heuristic = new PuzzleHeuristic(width, height);
+		if (isBitboardShape()) bitboard = new BitboardSolver();
+	}
+
+	// Setter of the pattern database, null to use the heuristic alone.
+	public void setPatternDatabase(PatternDatabase database)
+	{
+		if (database != null && (database.getWidth() != width || database.getHeight() != height))
+			throw new IllegalArgumentException("Pattern database is for " + database.getWidth() + "x" + database.getHeight());
+		this.database = database;
+	}
+
+	// Setter of the cache consulted before, and filled after, each search.
+	public void setSolutionCache(SolutionCache cache)
+	{
+		this.cache = cache;
+	}
+
+	// Whether or not 4x4 boards use the packed long search, on by default.
+	public void setBitboardEnabled(boolean enabled)
+	{
+		bitboard = (enabled && isBitboardShape()) ? new BitboardSolver() : null;
+	}
+
+	// Whether or not the search also takes the walking distance, off
+	// by default. Only boards of up to 4x4 have its tables, and the
+	// first solver of a shape builds them.
+	public void setWalkingDistanceEnabled(boolean enabled)
+	{
+		walking = (enabled && WalkingDistance.isSupported(width, height)) ? new WalkingDistance(width, height) : null;
+	}
+
+	private boolean isBitboardShape()
+	{
+		return (width == 4 && height == 4);
+	}
+
+	// Setter of the node budget of each solve() call.
+	public void setMaxNodes(long max)
+	{
+		maxNodes = max;
+	}
+
+	// Setter of the token that stops solve() from another thread, null for none.
+	public void setCancellationToken(CancellationToken token)
+	{
+		this.token = token;
+	}
+
+	// Setter of the time limit of each solve() call in milliseconds, 0 for none.
+	public void setTimeLimit(long millis)
+	{
+		timeLimit = millis;
+	}
+
+	// Setter of the listener told of each iteration and the end of each solve.
+	public void setStatsListener(SolverStats.Listener listener)
+	{
+		this.listener = listener;
+	}
+
+	// Statistics of the last, or current, solve() call. The same
+	// object is reset by the next call.
+	public SolverStats getStats()
+	{
+		return stats;
+	}
+
+	// Number of nodes expanded by the last solve() call.
+	public long getNodesExpanded()
+	{
+		return nodes;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	// Returns an optimal list of moves that solves start, or null if
+	// start cannot be solved or a limit stopped the search first;
+	// getStats() tells which.
+	public int[] solve(int[] start)
+	{
+		nodes = evaluations = tableLookups = 0;
+		exhausted = false;
+		stats.start(maxNodes, token, timeLimit, listener);
+		if (start.length != size || !PuzzleMoves.isSolvable(start, width))
+		{
+			stats.finish(SolverStats.UNSOLVABLE);
+			return null;
+		}
+
+		final int[] cached = readCache(start);
+		if (cached != null)
+		{
+			stats.finish(SolverStats.SOLVED);
+			return cached;
+		}
+
+		if (bitboard != null && walking == null && database == null)
+		{
+			final int[] moves = bitboard.solve(start, stats);
+			nodes = bitboard.getNodesExpanded();
+			exhausted = (moves == null);
+			if (moves != null) writeCache(start, moves);
+			stats.finish(SolverStats.SOLVED);
+			return moves;
+		}
+
+		System.arraycopy(start, 0, board, 0, size);
+		blank = PuzzleMoves.findBlank(board);
+		heuristic.reset(board);
+		if (walking != null) walking.reset(board);
+		for (int i = 0; i < size; i++)
+			positions[board[i]] = i;
+		resetPatterns();
+
+		int bound = estimate();
+		while (true)
+		{
+			nextBound = Integer.MAX_VALUE;
+			final boolean found = search(0, bound, PuzzleMoves.NONE);
+			stats.endIteration(bound, nodes, evaluations, tableLookups);
+			if (found)
+			{
+				final int[] moves = new int[length];
+				System.arraycopy(path, 0, moves, 0, length);
+				writeCache(start, moves);
+				stats.finish(SolverStats.SOLVED);
+				return moves;
+			}
+
+			if (exhausted)
+			{
+				stats.finish(SolverStats.NODE_LIMIT);
+				return null;
+			}
+			bound = nextBound;
+		}
+	}
+
+	private boolean search(int depth, int bound, int lastMove)
+	{
+		final int estimate = estimate(),
+				  cost = depth + estimate;
+		++evaluations;
+
+		if (cost > bound)
+		{
+			if (cost < nextBound) nextBound = cost;
+			return false;
+		}
+
+		if (estimate == 0)
+		{
+			length = depth;
+			return true;
+		}
+
+		// Limits are checked every SolverStats.CHECK_INTERVAL nodes.
+		if (++nodes >= stats.nextCheck && stats.isStopped(nodes))
+		{
+			exhausted = true;
+			return false;
+		}
+
+		if (depth == path.length)
+		{
+			final int[] grown = new int[path.length * 2];
+			System.arraycopy(path, 0, grown, 0, path.length);
+			path = grown;
+		}
+
+		for (int move = 0; move < PuzzleMoves.COUNT; move++)
+		{
+			if (move == PuzzleMoves.opposite(lastMove)) continue;
+
+			final int from = neighbours[(blank << 2) | move];
+			if (from < 0) continue;
+
+			// Slide the piece into the blank.
+			final int piece = board[from], to = blank;
+			board[to] = piece;
+			board[from] = size - 1;
+			blank = from;
+			heuristic.moveTile(piece, from, to);
+			if (walking != null) walking.moveTile(piece, from, to);
+			positions[piece] = to;
+			movePattern(piece);
+			path[depth] = move;
+
+			if (search(depth + 1, bound, move)) return true;
+
+			// Undo the move.
+			heuristic.moveTile(piece, to, from);
+			if (walking != null) walking.moveTile(piece, to, from);
+			positions[piece] = from;
+			movePattern(piece);
+			board[from] = piece;
+			board[to] = size - 1;
+			blank = to;
+
+			if (exhausted) return false;
+		}
+
+		return false;
+	}
+
+	// A cache that fails to read or write is treated as a miss,
+	// the search itself never depends on it.
+	private int[] readCache(int[] start)
+	{
+		if (cache == null) return null;
+
+		int[] moves;
+		try
+		{
+			moves = cache.get(start, width);
+		}
+		catch (IOException e)
+		{
+			moves = null;
+		}
+		stats.recordCache(moves != null);
+
+		return moves;
+	}
+
+	private void writeCache(int[] start, int[] moves)
+	{
+		if (cache == null) return;
+
+		try
+		{
+			cache.put(start, width, moves);
+		}
+		catch (IOException e) {}
+	}
+
+	// Lower bound on the moves left from the current board.
+	private int estimate()
+	{
+		int estimate = heuristic.getEstimate();
+		if (estimate == 0) return 0;
+		if (walking != null && walking.getEstimate() > estimate) estimate = walking.getEstimate();
+		if (database == null) return estimate;
+
+		for (int lookup = 0; lookup < lookups; lookup++)
+			if (lookupTotals[lookup] > estimate) estimate = lookupTotals[lookup];
+		return estimate;
+	}
+
+	// Looks up the distance of every pattern of the current board.
+	private void resetPatterns()
+	{
+		if (database == null) return;
+
+		final int patterns = database.getPatternCount();
+		lookups = database.getLookups();
+		if (patternValues.length != lookups * patterns)
+		{
+			patternValues = new int[lookups * patterns];
+			lookupTotals = new int[lookups];
+		}
+
+		for (int lookup = 0; lookup < lookups; lookup++)
+		{
+			lookupTotals[lookup] = 0;
+			for (int p = 0; p < patterns; p++)
+			{
+				patternValues[lookup * patterns + p] = database.value(p, lookup, positions);
+				lookupTotals[lookup] += patternValues[lookup * patterns + p];
+			}
+		}
+		tableLookups += lookups * patterns;
+	}
+
+	// Updates the distance of the patterns of piece, which just moved.
+	private void movePattern(int piece)
+	{
+		if (database == null) return;
+
+		for (int lookup = 0; lookup < lookups; lookup++)
+		{
+			final int p = database.patternOf(piece, lookup);
+			if (p < 0) continue;
+
+			final int index = lookup * database.getPatternCount() + p,
+					  value = database.next(p, lookup, positions, patternValues[index]);
+			lookupTotals[lookup] += value - patternValues[index];
+			patternValues[index] = value;
+			++tableLookups;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+// Java packages
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/*
+ * The compact form of a game written by NPuzzleView's
+ * exportState(): a version byte, the width and height, a
+ * solved flag and the move count, followed by the board's
+ * permutation rank as a long up to 20 pieces, or its packed
+ * Lehmer digits for larger boards (see PermutationRank).
+ * Version 1, of square boards only, had no height.
+ */
+
+public class SavedBoard
+{
+	public static final int VERSION = 2,
+							HEADER_BYTES = 8;				// Version, width, height, solved & moves.
+	private static final int VERSION_SQUARE = 1;
+
+	public final int width, height, moves;
+	public final boolean solved;
+	public final int[] board;
+
+	public SavedBoard(int width, int[] board, int moves, boolean solved)
+	{
+		this(width, board.length / width, board, moves, solved);
+	}
+
+	public SavedBoard(int width, int height, int[] board, int moves, boolean solved)
+	{
+		this.width = width;
+		this.height = height;
+		this.board = board;
+		this.moves = moves;
+		this.solved = solved;
+	}
+
+	public byte[] encode()
+	{
+		final boolean fitsLong = (board.length <= PermutationRank.MAX_LONG_SIZE);
+		final byte[] digits = fitsLong ? null : PermutationRank.pack(board);
+		final ByteBuffer state = ByteBuffer.allocate(HEADER_BYTES + (fitsLong ? 8 : digits.length));
+
+		state.put((byte) VERSION).put((byte) width).put((byte) height).put((byte) (solved ? 1 : 0)).putInt(moves);
+		if (fitsLong)
+			state.putLong(PermutationRank.rank(board));
+		else
+			state.put(digits);
+
+		return state.array();
+	}
+
+	// Decodes state, throws IllegalArgumentException if it is
+	// truncated, corrupt or holds an unsolvable board.
+	public static SavedBoard decode(byte[] state)
+	{
+		if (state == null || state.length < HEADER_BYTES - 1 || (state[0] != VERSION && state[0] != VERSION_SQUARE))
+			throw new IllegalArgumentException("Not a saved board");
+
+		final ByteBuffer buffer = ByteBuffer.wrap(state);
+		final int width, height, moves;
+		final boolean solved;
+		try
+		{
+			final boolean square = (buffer.get() == VERSION_SQUARE);
+			width = buffer.get() & 0xFF;
+			height = square ? width : buffer.get() & 0xFF;
+			solved = (buffer.get() != 0);
+			moves = buffer.getInt();
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IllegalArgumentException("Truncated saved board");
+		}
+		if (width < 2 || height < 2)
+			throw new IllegalArgumentException("Bad size " + width + "x" + height);
+
+		final int[] board = new int[width * height];
+		try
+		{
+			if (board.length <= PermutationRank.MAX_LONG_SIZE)
+			{
+				PermutationRank.unrank(buffer.getLong(), board);
+			}
+			else
+			{
+				final byte[] digits = new byte[(PermutationRank.packedBits(board.length) + 7) >> 3];
+				buffer.get(digits);
+				PermutationRank.unpack(digits, board);
+			}
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new IllegalArgumentException("Truncated saved board");
+		}
+
+		if (!PuzzleMoves.isSolvable(board, width))
+			throw new IllegalArgumentException("Unsolvable saved board");
+
+		return new SavedBoard(width, height, board, moves, solved);
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+// Java packages
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/*
+ * A copy of the board and move count that other threads can
+ * read while one writer, the UI thread, changes it. It is a
+ * seqlock: the writer makes the sequence odd, writes, then
+ * makes it even again, and a reader copies between two reads
+ * of the sequence, retrying if it changed or was odd. The
+ * writer never waits for readers.
+ *
+ * The cells are an AtomicIntegerArray rather than an int[]
+ * so that, under the Java memory model, every cell a reader
+ * copies is ordered between its two reads of the sequence.
+ * Cell 0 is the width, cell 1 the move count and the rest
+ * the board in row order.
+ */
+
+public class SharedBoard
+{
+	private static final int HEADER = 2;
+
+	private volatile AtomicIntegerArray cells = new AtomicIntegerArray(HEADER);
+	private volatile int sequence;							// Odd while a write is in progress.
+
+	// A board as read by a reader, reused from read to read.
+	public static class Snapshot
+	{
+		public int width, moves, sequence;
+		public int[] board = new int[0];
+	}
+
+	// ====================
+	//       Writing
+	// ====================
+
+	// Starts a write, only ever called from the one writing thread.
+	public void begin()
+	{
+		sequence++;	// Single writer, so no lost updates.
+	}
+
+	// Ends a write, publishing it to readers.
+	public void end()
+	{
+		sequence++;
+	}
+
+	// Within a write, sets the piece at position.
+	public void set(int position, int piece)
+	{
+		cells.set(HEADER + position, piece);
+	}
+
+	// Within a write, sets the move count.
+	public void setMoves(int moves)
+	{
+		cells.set(1, moves);
+	}
+
+	// Publishes a whole board of width, eg. a new game.
+	public void reset(int[] board, int width, int moves)
+	{
+		begin();
+		if (cells.length() != HEADER + board.length)
+			cells = new AtomicIntegerArray(HEADER + board.length);
+
+		cells.set(0, width);
+		cells.set(1, moves);
+		for (int i = 0; i < board.length; i++)
+			cells.set(HEADER + i, board[i]);
+		end();
+	}
+
+	// ====================
+	//       Reading
+	// ====================
+
+	// Copies a consistent board into snapshot, from any thread,
+	// retrying while a write is in progress. Returns the number
+	// of retries, 0 if the first copy was consistent.
+	public int read(Snapshot snapshot)
+	{
+		for (int retries = 0; ; retries++)
+		{
+			final int before = sequence;
+			if ((before & 1) == 0)
+			{
+				final AtomicIntegerArray current = cells;
+				final int size = current.length() - HEADER;
+				if (snapshot.board.length != size)
+					snapshot.board = new int[size];
+
+				snapshot.width = current.get(0);
+				snapshot.moves = current.get(1);
+				for (int i = 0; i < size; i++)
+					snapshot.board[i] = current.get(HEADER + i);
+
+				if (sequence == before)
+				{
+					snapshot.sequence = before;
+					return retries;
+				}
+			}
+
+			if ((retries & 63) == 63)
+				Thread.yield();	// Let a descheduled writer finish.
+		}
+	}
+
+	// Sequence of the last completed write, eg. to skip
+	// reading a board that has not changed.
+	public int getSequence()
+	{
+		return sequence & ~1;
+	}
+}
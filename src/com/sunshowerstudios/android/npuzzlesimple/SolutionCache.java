@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+// Java packages
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/*
+ * Disk backed cache of solutions, keyed by the permutation
+ * rank and shape of the board, so a lookup hashes the board
+ * as it is without copying it. The shape is the width of a
+ * square board, or width << 4 | height of a rectangular one.
+ *
+ * Each generation is a pair of files: an append only log of
+ * records (rank, shape, length, moves packed four to a byte)
+ * and a memory mapped open addressing index of 16 byte slots
+ * (rank, offset << 8 | shape). When a generation fills up it
+ * becomes the previous one and any older one is deleted, so
+ * the cache never holds more than about maxBytes; hits in
+ * the previous generation are copied forward to keep them.
+ *
+ * Appends are only locked within the process, so a directory
+ * belongs to one open cache at a time: open() takes a lock
+ * file there and fails while another process, or another
+ * cache in this one, holds it, until close().
+ */
+
+public class SolutionCache
+{
+	private static final int SLOT_BYTES = 16,
+							 HEADER_BYTES = 8,				// Keeps offset 0 free to mark empty slots.
+							 MIN_SLOTS = 1024;
+	private static final long MAGIC = 0x4e50534f4c563031L;	// "NPSOLV01"
+
+	private final File directory;
+	private final int slots;
+	private final long dataLimit;
+	private Generation current, previous;
+	private ByteBuffer record = ByteBuffer.allocate(256);
+	private RandomAccessFile lockFile;
+	private FileLock lock;									// Of the directory, held until close().
+
+	private SolutionCache(File directory, long maxBytes)
+	{
+		this.directory = directory;
+
+		// Half of maxBytes per generation, about 48 bytes per solution.
+		final long generationBytes = maxBytes / 2;
+		slots = Math.max(MIN_SLOTS, Integer.highestOneBit((int) Math.min(1 << 26, generationBytes / 48)));
+		dataLimit = Math.max(HEADER_BYTES + 1024, generationBytes - (long) slots * SLOT_BYTES);
+	}
+
+	// Opens or creates the cache in directory, holding up to about
+	// maxBytes. Throws IOException if the directory is in use.
+	public static SolutionCache open(File directory, long maxBytes) throws IOException
+	{
+		directory.mkdirs();
+		final SolutionCache cache = new SolutionCache(directory, maxBytes);
+		cache.lock();
+
+		// Pick up the two newest generations left by a previous run.
+		long newest = -1;
+		final String[] names = directory.list();
+		for (int i = 0; names != null && i < names.length; i++)
+		{
+			if (names[i].startsWith("solutions-") && names[i].endsWith(".dat"))
+			{
+				try
+				{
+					newest = Math.max(newest, Long.parseLong(names[i].substring(10, names[i].length() - 4)));
+				}
+				catch (NumberFormatException e) {}
+			}
+		}
+
+		try
+		{
+			cache.deleteBefore(newest - 1);
+			if (newest > 0 && cache.file(newest - 1, ".dat").exists())
+				cache.previous = cache.openGeneration(newest - 1);
+			cache.current = cache.openGeneration(Math.max(newest, 0));
+		}
+		catch (IOException e)
+		{
+			cache.unlock();
+			throw e;
+		}
+
+		return cache;
+	}
+
+	// Takes the directory's lock file without waiting.
+	private void lock() throws IOException
+	{
+		lockFile = new RandomAccessFile(new File(directory, "solutions.lock"), "rw");
+		try
+		{
+			lock = lockFile.getChannel().tryLock();
+		}
+		catch (OverlappingFileLockException e) {}	// Held by another cache of this process.
+
+		if (lock == null)
+		{
+			lockFile.close();
+			throw new IOException("Solution cache in use: " + directory);
+		}
+	}
+
+	private void unlock() throws IOException
+	{
+		lock.release();
+		lockFile.close();
+	}
+
+	// Deletes the files of every generation numbered below number.
+	private void deleteBefore(long number)
+	{
+		final String[] names = directory.list();
+		for (int i = 0; names != null && i < names.length; i++)
+		{
+			if (!names[i].startsWith("solutions-") || !(names[i].endsWith(".dat") || names[i].endsWith(".idx")))
+				continue;
+
+			try
+			{
+				if (Long.parseLong(names[i].substring(10, names[i].length() - 4)) < number)
+					new File(directory, names[i]).delete();
+			}
+			catch (NumberFormatException e) {}
+		}
+	}
+
+	// Whether or not boards of size pieces can be cached.
+	public static boolean canCache(int size)
+	{
+		return (size <= PermutationRank.MAX_LONG_SIZE);
+	}
+
+	// Returns the cached solution of board, or null.
+	public synchronized int[] get(int[] board, int width) throws IOException
+	{
+		if (!canCache(board.length)) return null;
+
+		final long rank = PermutationRank.rank(board);
+		final int shape = shape(board, width);
+		int[] moves = current.read(rank, shape);
+		if (moves == null && previous != null)
+		{
+			moves = previous.read(rank, shape);
+			if (moves != null) put(rank, shape, moves);
+		}
+
+		return moves;
+	}
+
+	// Stores moves as the solution of board.
+	public synchronized void put(int[] board, int width, int[] moves) throws IOException
+	{
+		if (!canCache(board.length)) return;
+
+		final long rank = PermutationRank.rank(board);
+		final int shape = shape(board, width);
+		if (current.find(rank, shape) < 0)
+			put(rank, shape, moves);
+	}
+
+	// Shape byte of board, the width alone when square so that
+	// entries written before rectangular boards still match.
+	private static int shape(int[] board, int width)
+	{
+		final int height = board.length / width;
+		return (height == width) ? width : (width << 4) | height;
+	}
+
+	public synchronized void close() throws IOException
+	{
+		try
+		{
+			current.close();
+			if (previous != null) previous.close();
+		}
+		finally
+		{
+			unlock();
+		}
+	}
+
+	private void put(long rank, int shape, int[] moves) throws IOException
+	{
+		if (current.isFull())
+		{
+			if (previous != null) previous.delete();
+			previous = current;
+			current = openGeneration(previous.number + 1);
+			deleteBefore(previous.number);
+		}
+
+		current.append(rank, shape, moves);
+	}
+
+	private File file(long generation, String suffix)
+	{
+		return new File(directory, "solutions-" + generation + suffix);
+	}
+
+	private Generation openGeneration(long number) throws IOException
+	{
+		return new Generation(number);
+	}
+
+	// Slot of the index where a probe for rank starts.
+	private int slotFor(long rank, int shape)
+	{
+		final long hash = (rank ^ shape) * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32) & (slots - 1);
+	}
+
+	// ====================
+	//     Generations
+	// ====================
+
+	private class Generation
+	{
+		final long number;
+		final RandomAccessFile data, indexFile;
+		final FileChannel channel;
+		final MappedByteBuffer index;
+		long end;
+		int entries;
+
+		Generation(long number) throws IOException
+		{
+			this.number = number;
+			data = new RandomAccessFile(file(number, ".dat"), "rw");
+			indexFile = new RandomAccessFile(file(number, ".idx"), "rw");
+			channel = data.getChannel();
+
+			if (data.length() < HEADER_BYTES)
+			{
+				data.setLength(0);
+				data.writeLong(MAGIC);
+			}
+			else if (data.readLong() != MAGIC)
+				throw new IOException("Not a solution cache: " + file(number, ".dat"));
+			end = data.length();
+
+			final boolean fresh = (indexFile.length() != (long) slots * SLOT_BYTES);
+			indexFile.setLength((long) slots * SLOT_BYTES);
+			index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, (long) slots * SLOT_BYTES);
+
+			// An index of another size cannot be trusted, start over.
+			if (fresh)
+			{
+				for (int i = 0; i < slots; i++)
+					index.putLong(i * SLOT_BYTES + 8, 0);
+				data.setLength(HEADER_BYTES);
+				end = HEADER_BYTES;
+			}
+			else
+			{
+				for (int i = 0; i < slots; i++)
+					if (index.getLong(i * SLOT_BYTES + 8) != 0)
+						++entries;
+			}
+		}
+
+		boolean isFull()
+		{
+			return (entries >= slots - (slots >> 2) || end >= dataLimit);
+		}
+
+		// Index slot holding rank, or -1.
+		int find(long rank, int shape)
+		{
+			for (int slot = slotFor(rank, shape); ; slot = (slot + 1) & (slots - 1))
+			{
+				final long value = index.getLong(slot * SLOT_BYTES + 8);
+				if (value == 0) return -1;
+				if ((value & 0xFF) == shape && index.getLong(slot * SLOT_BYTES) == rank) return slot;
+			}
+		}
+
+		int[] read(long rank, int shape) throws IOException
+		{
+			final int slot = find(rank, shape);
+			if (slot < 0) return null;
+
+			final long offset = index.getLong(slot * SLOT_BYTES + 8) >>> 8;
+			if (offset + 13 > end) return null;
+
+			// Fixed part: rank, shape and length.
+			record.clear();
+			record.limit(13);
+			channel.read(record, offset);
+			record.flip();
+			if (record.remaining() < 13 || record.getLong() != rank || (record.get() & 0xFF) != shape) return null;
+
+			final int length = record.getInt(),
+					  packed = (length + 3) >> 2;
+			if (record.capacity() < packed) record = ByteBuffer.allocate(packed);
+			record.clear();
+			record.limit(packed);
+			channel.read(record, offset + 13);
+			record.flip();
+			if (record.remaining() < packed) return null;
+
+			final int[] moves = new int[length];
+			for (int i = 0; i < length; i++)
+				moves[i] = (record.get(i >> 2) >> ((i & 3) << 1)) & 3;
+
+			return moves;
+		}
+
+		void append(long rank, int shape, int[] moves) throws IOException
+		{
+			final int packed = (moves.length + 3) >> 2;
+			if (record.capacity() < 13 + packed) record = ByteBuffer.allocate(13 + packed);
+			record.clear();
+			record.putLong(rank).put((byte) shape).putInt(moves.length);
+			for (int i = 0; i < packed; i++)
+			{
+				int bits = 0;
+				for (int j = 0; j < 4 && (i << 2) + j < moves.length; j++)
+					bits |= moves[(i << 2) + j] << (j << 1);
+				record.put((byte) bits);
+			}
+			record.flip();
+
+			// Log first, then index, so a crash never indexes a partial record.
+			final long offset = end;
+			while (record.hasRemaining())
+				channel.write(record, end + record.position());
+			end += 13 + packed;
+
+			int slot = slotFor(rank, shape);
+			while (index.getLong(slot * SLOT_BYTES + 8) != 0)
+				slot = (slot + 1) & (slots - 1);
+			index.putLong(slot * SLOT_BYTES, rank);
+			index.putLong(slot * SLOT_BYTES + 8, (offset << 8) | shape);
+			++entries;
+		}
+
+		void close() throws IOException
+		{
+			index.force();
+			data.close();
+			indexFile.close();
+		}
+
+		void delete() throws IOException
+		{
+			close();
+			file(number, ".dat").delete();
+			file(number, ".idx").delete();
+		}
+	}
+}
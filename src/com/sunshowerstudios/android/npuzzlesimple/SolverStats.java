@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+/*
+ * Statistics of the last solve() of a PuzzleSolver or
+ * BitboardSolver: nodes expanded and bound of each IDA*
+ * iteration, heuristic evaluations, pattern database
+ * lookups, SolutionCache hits and elapsed time, and why the
+ * search ended. Reset as each solve starts.
+ *
+ * The search also asks its limits here every CHECK_INTERVAL
+ * nodes, so a node costs one comparison whether or not a
+ * budget, CancellationToken or time limit is set. The nodes
+ * and bound may be polled from another thread while solving;
+ * read the rest from a Listener or once solve() returns.
+ */
+
+public class SolverStats
+{
+	public static final int RUNNING = 0,
+							SOLVED = 1,
+							UNSOLVABLE = 2,					// Not a board that can be solved.
+							NODE_LIMIT = 3,					// Over the solver's setMaxNodes().
+							CANCELLED = 4,					// By the CancellationToken.
+							TIMED_OUT = 5;					// Past the solver's setTimeLimit().
+	public static final int CHECK_INTERVAL = 1024;			// Nodes between checks of the limits.
+	private static final String[] RESULTS = { "running", "solved", "unsolvable", "node-limit", "cancelled", "timed-out" };
+
+	// Receives the statistics on the solving thread, eg. to show
+	// progress or log them. Neither may call solve() again.
+	public static interface Listener
+	{
+		public void onIteration(SolverStats stats);			// After each IDA* iteration.
+		public void onFinished(SolverStats stats);
+	}
+
+	private long[] iterationNodes = new long[16];
+	private int[] bounds = new int[16];
+	private int iterations;
+	private volatile int bound, result;
+	private volatile long nodes;
+	private long evaluations, tableLookups, cacheLookups, cacheHits;
+	private long startNanos, elapsedNanos, deadline;
+	private long maxNodes;
+	private CancellationToken token;
+	private Listener listener;
+	long nextCheck;											// Nodes at which the search next calls isStopped().
+
+	// ====================
+	//      Recording
+	// ====================
+
+	// Resets everything as a solve starts with these limits, timeLimit
+	// in milliseconds or 0 for none.
+	void start(long maxNodes, CancellationToken token, long timeLimit, Listener listener)
+	{
+		this.maxNodes = maxNodes;
+		this.token = token;
+		this.listener = listener;
+		iterations = bound = 0;
+		nodes = evaluations = tableLookups = cacheLookups = cacheHits = 0;
+		result = RUNNING;
+		startNanos = System.nanoTime();
+		elapsedNanos = 0;
+		deadline = (timeLimit > 0) ? startNanos + timeLimit * 1000000 : 0;
+		schedule(0);
+	}
+
+	// Called when the search reaches nextCheck nodes. Returns whether
+	// or not it must stop, recording why, or schedules the next check.
+	boolean isStopped(long expanded)
+	{
+		nodes = expanded;
+		if (expanded > maxNodes)
+			result = NODE_LIMIT;
+		else if (token != null && token.isCancelled())
+			result = CANCELLED;
+		else if (deadline != 0 && System.nanoTime() - deadline > 0)
+			result = TIMED_OUT;
+		else
+		{
+			schedule(expanded);
+			return false;
+		}
+
+		return true;
+	}
+
+	// Stops at once on nodes past maxNodes, or checks again in CHECK_INTERVAL.
+	private void schedule(long expanded)
+	{
+		nextCheck = (maxNodes - expanded < CHECK_INTERVAL) ? maxNodes + 1 : expanded + CHECK_INTERVAL;
+	}
+
+	void recordCache(boolean hit)
+	{
+		++cacheLookups;
+		if (hit) ++cacheHits;
+	}
+
+	// Records an iteration to bound, with the search's totals after it.
+	void endIteration(int bound, long expanded, long evaluated, long lookedUp)
+	{
+		if (iterations == bounds.length)
+		{
+			final int[] grownBounds = new int[iterations * 2];
+			final long[] grownNodes = new long[iterations * 2];
+			System.arraycopy(bounds, 0, grownBounds, 0, iterations);
+			System.arraycopy(iterationNodes, 0, grownNodes, 0, iterations);
+			bounds = grownBounds;
+			iterationNodes = grownNodes;
+		}
+
+		bounds[iterations] = bound;
+		iterationNodes[iterations] = expanded - nodes(iterations);
+		++iterations;
+		this.bound = bound;
+		nodes = expanded;
+		evaluations = evaluated;
+		tableLookups = lookedUp;
+		elapsedNanos = System.nanoTime() - startNanos;
+
+		if (listener != null) listener.onIteration(this);
+	}
+
+	// Records the end of the solve, result one of SOLVED to TIMED_OUT.
+	// A result already set by isStopped() is kept.
+	void finish(int result)
+	{
+		if (this.result == RUNNING) this.result = result;
+		elapsedNanos = System.nanoTime() - startNanos;
+
+		if (listener != null) listener.onFinished(this);
+	}
+
+	// Nodes expanded by every iteration before iteration.
+	private long nodes(int iteration)
+	{
+		long total = 0;
+		for (int i = 0; i < iteration; i++)
+			total += iterationNodes[i];
+
+		return total;
+	}
+
+	// ====================
+	//       Reading
+	// ====================
+
+	public int getResult()
+	{
+		return result;
+	}
+
+	// Name of result, eg. for logs.
+	public static String nameOf(int result)
+	{
+		return RESULTS[result];
+	}
+
+	public int getIterations()
+	{
+		return iterations;
+	}
+
+	// Bound of iteration, from 0.
+	public int getBound(int iteration)
+	{
+		return bounds[iteration];
+	}
+
+	// Nodes expanded by iteration, from 0.
+	public long getNodes(int iteration)
+	{
+		return iterationNodes[iteration];
+	}
+
+	// Bound of the last iteration finished.
+	public int getBound()
+	{
+		return bound;
+	}
+
+	// Nodes expanded so far, to within CHECK_INTERVAL while solving.
+	public long getNodesExpanded()
+	{
+		return nodes;
+	}
+
+	// Evaluations of the heuristic, one per node generated.
+	public long getHeuristicLookups()
+	{
+		return evaluations;
+	}
+
+	// Reads of pattern database tables.
+	public long getTableLookups()
+	{
+		return tableLookups;
+	}
+
+	public long getCacheLookups()
+	{
+		return cacheLookups;
+	}
+
+	public long getCacheHits()
+	{
+		return cacheHits;
+	}
+
+	// Fraction of cache lookups that hit, 0 without any.
+	public double getCacheHitRate()
+	{
+		return (cacheLookups == 0) ? 0 : cacheHits / (double) cacheLookups;
+	}
+
+	// Time from the start of the solve to its last iteration or end.
+	public long getElapsedNanos()
+	{
+		return elapsedNanos;
+	}
+
+	public double getNodesPerSecond()
+	{
+		return (elapsedNanos == 0) ? 0 : nodes * 1e9 / elapsedNanos;
+	}
+
+	@Override
+	public String toString()
+	{
+		final StringBuilder builder = new StringBuilder()
+			.append(RESULTS[result]).append(": nodes=").append(nodes)
+			.append(" evaluations=").append(evaluations)
+			.append(" tableLookups=").append(tableLookups)
+			.append(" cache=").append(cacheHits).append('/').append(cacheLookups)
+			.append(" elapsed=").append(elapsedNanos / 1000).append("us")
+			.append(String.format(" %.1fM nodes/s", getNodesPerSecond() / 1e6));
+		for (int i = 0; i < iterations; i++)
+			builder.append("\n  bound ").append(bounds[i]).append(": ").append(iterationNodes[i]).append(" nodes");
+
+		return builder.toString();
+	}
+}
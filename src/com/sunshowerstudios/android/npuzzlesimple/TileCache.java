@@ -0,0 +1,322 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+// Java packages
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+
+// Android packages
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+/*
+ * Disk cache of the pieces TileSource cuts, so a board of an
+ * image seen before neither decodes nor scales it. A file
+ * holds one set of tiles, named by the hash of the image, its
+ * size, columns, rows and border, and is the raw pixels of each
+ * piece but the blank after a small header. Loading is one
+ * channel read into a buffer kept from load to load and a
+ * copy into each bitmap.
+ *
+ * Files are touched when loaded, and the least recently used
+ * are deleted once the cache holds more than maxBytes.
+ */
+
+public class TileCache
+{
+	private static final int MAGIC = 0x4e505443,				// "NPTC"
+							 VERSION = 2,				// 1 had no rows, always the difficulty.
+							 HEADER_BYTES = 44;
+	private static final String SUFFIX = ".tiles";
+	private static final Bitmap.Config[] CONFIGS = Bitmap.Config.values();
+
+	private final File directory;
+	private final long maxBytes;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(0);	// Reused by every load & store.
+	private long size = -1;										// Bytes of every file, -1 until counted.
+
+	private TileCache(File directory, long maxBytes)
+	{
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	// Opens or creates the cache in directory, holding up to about maxBytes.
+	public static TileCache open(File directory, long maxBytes) throws IOException
+	{
+		directory.mkdirs();
+		if (!directory.isDirectory())
+			throw new IOException("Not a directory: " + directory);
+
+		return new TileCache(directory, maxBytes);
+	}
+
+	// ====================
+	//       Hashing
+	// ====================
+
+	// Hash of an encoded image, eg. a resource, read to the end.
+	public static long hash(InputStream in) throws IOException
+	{
+		final CRC32 crc = new CRC32();
+		final Adler32 adler = new Adler32();
+		final byte[] chunk = new byte[16384];
+		for (int read; (read = in.read(chunk)) > 0; )
+		{
+			crc.update(chunk, 0, read);
+			adler.update(chunk, 0, read);
+		}
+
+		return (crc.getValue() << 32) | adler.getValue();
+	}
+
+	// Hash of the pixels of a decoded image.
+	public static long hash(Bitmap image)
+	{
+		final CRC32 crc = new CRC32();
+		final Adler32 adler = new Adler32();
+		final int width = image.getWidth();
+		final int[] row = new int[width];
+		final ByteBuffer bytes = ByteBuffer.allocate(width * 4);
+		for (int y = 0; y < image.getHeight(); y++)
+		{
+			image.getPixels(row, 0, width, 0, y, width, 1);
+			bytes.clear();
+			bytes.asIntBuffer().put(row);
+			crc.update(bytes.array());
+			adler.update(bytes.array());
+		}
+
+		return ((crc.getValue() << 32) | adler.getValue()) ^ ((long) width << 48) ^ image.getHeight();
+	}
+
+	// ====================
+	//  Loading & Storing
+	// ====================
+
+	public synchronized boolean contains(long hash, int width, int height, int columns, int rows, int border)
+	{
+		return file(hash, width, height, columns, rows, border).exists();
+	}
+
+	// Returns the tiles stored for these arguments, or null if there
+	// are none. A file that does not match them is deleted.
+	public synchronized TileSource.Tiles load(long hash, int width, int height, int columns, int rows, int border) throws IOException
+	{
+		final File file = file(hash, width, height, columns, rows, border);
+		if (!file.exists()) return null;
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer in = buffer((int) channel.size());
+			while (in.hasRemaining())
+				if (channel.read(in) < 0) break;
+			in.flip();
+			final int end = in.limit();
+
+			final int pieceWidth = width / columns - border,
+					  pieceHeight = height / rows - border,
+					  last = (columns * rows) - 1;
+			if (in.remaining() < HEADER_BYTES || in.getInt() != MAGIC || in.getInt() != VERSION
+					|| in.getLong() != hash || in.getInt() != width || in.getInt() != height
+					|| in.getInt() != columns || in.getInt() != rows || in.getInt() != border)
+				return discard(file);
+
+			final int config = in.getInt(),
+					  pieceBytes = in.getInt();
+			if (config < 0 || config >= CONFIGS.length || in.remaining() != (long) pieceBytes * last)
+				return discard(file);
+
+			final Bitmap[] pieces = new Bitmap[last + 1];
+			for (int i = 0; i < last; i++)
+			{
+				pieces[i] = Bitmap.createBitmap(pieceWidth, pieceHeight, CONFIGS[config]);
+				if (pieces[i].getRowBytes() * pieceHeight != pieceBytes)
+				{
+					for (int j = 0; j <= i; j++)
+						pieces[j].recycle();
+					return discard(file);
+				}
+
+				in.limit(in.position() + pieceBytes);
+				pieces[i].copyPixelsFromBuffer(in);
+				in.limit(end);
+			}
+
+			// Initialize blank bitmap (no image required).
+			final Bitmap blank = Bitmap.createBitmap(pieceWidth, pieceHeight, Bitmap.Config.ARGB_4444);
+			blank.eraseColor(Color.TRANSPARENT);
+			pieces[last] = blank;
+
+			// Most recently used.
+			file.setLastModified(System.currentTimeMillis());
+
+			return new TileSource.Tiles(width, height, columns, rows, pieces, blank);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	// Stores tiles, cut from the image of hash less border. Pieces
+	// of a config Bitmap does not name are not stored, since they
+	// could not be loaded back.
+	public synchronized void store(long hash, TileSource.Tiles tiles, int border) throws IOException
+	{
+		final Bitmap[] pieces = tiles.pieces;
+		final Bitmap.Config config = pieces[0].getConfig();
+		if (config == null) return;
+
+		final int last = pieces.length - 1,
+				  pieceBytes = pieces[0].getRowBytes() * pieces[0].getHeight();
+		final ByteBuffer out = buffer(HEADER_BYTES + pieceBytes * last);
+
+		out.putInt(MAGIC).putInt(VERSION).putLong(hash)
+			.putInt(tiles.width).putInt(tiles.height).putInt(tiles.difficulty).putInt(tiles.rows).putInt(border)
+			.putInt(config.ordinal()).putInt(pieceBytes);
+		for (int i = 0; i < last; i++)
+			pieces[i].copyPixelsToBuffer(out);
+		out.flip();
+
+		// Write a temporary file, so a reader never sees half of one.
+		final File file = file(hash, tiles.width, tiles.height, tiles.difficulty, tiles.rows, border),
+				   temporary = new File(directory, file.getName() + ".tmp");
+		final RandomAccessFile raf = new RandomAccessFile(temporary, "rw");
+		try
+		{
+			raf.setLength(0);
+			final FileChannel channel = raf.getChannel();
+			while (out.hasRemaining())
+				channel.write(out);
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		final long replaced = file.length();
+		if (!temporary.renameTo(file))
+		{
+			temporary.delete();
+			throw new IOException("Could not write " + file);
+		}
+
+		if (size >= 0) size += file.length() - replaced;
+		evict();
+	}
+
+	// Deletes every file of the cache.
+	public synchronized void clear()
+	{
+		final File[] files = files();
+		for (int i = 0; i < files.length; i++)
+			files[i].delete();
+		size = 0;
+	}
+
+	// Bytes of every file of the cache.
+	public synchronized long getSize()
+	{
+		if (size < 0)
+		{
+			final File[] files = files();
+			size = 0;
+			for (int i = 0; i < files.length; i++)
+				size += files[i].length();
+		}
+
+		return size;
+	}
+
+	// Deletes the least recently used files while over maxBytes.
+	private void evict()
+	{
+		if (getSize() <= maxBytes) return;
+
+		final File[] files = files();
+		final long[] used = new long[files.length];
+		for (int i = 0; i < files.length; i++)
+			used[i] = files[i].lastModified();
+
+		// Oldest first, sorted on the times read above as they can change.
+		final Integer[] order = new Integer[files.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			public int compare(Integer a, Integer b)
+			{
+				return (used[a] < used[b]) ? -1 : (used[a] == used[b]) ? 0 : 1;
+			}
+		});
+
+		for (int i = 0; i < order.length && size > maxBytes; i++)
+		{
+			final long length = files[order[i]].length();
+			if (files[order[i]].delete()) size -= length;
+		}
+	}
+
+	private File file(long hash, int width, int height, int columns, int rows, int border)
+	{
+		return new File(directory, Long.toHexString(hash) + "-" + width + "x" + height
+				+ "-" + columns + "x" + rows + "-" + border + SUFFIX);
+	}
+
+	private File[] files()
+	{
+		final File[] files = directory.listFiles();
+		if (files == null) return new File[0];
+
+		int count = 0;
+		for (int i = 0; i < files.length; i++)
+			if (files[i].getName().endsWith(SUFFIX)) files[count++] = files[i];
+
+		final File[] tiles = new File[count];
+		System.arraycopy(files, 0, tiles, 0, count);
+		return tiles;
+	}
+
+	// The reused buffer, cleared, with room for at least bytes.
+	private ByteBuffer buffer(int bytes)
+	{
+		if (buffer.capacity() < bytes)
+			buffer = ByteBuffer.allocateDirect(bytes);
+
+		buffer.clear();
+		buffer.limit(bytes);
+		return buffer;
+	}
+
+	private TileSource.Tiles discard(File file)
+	{
+		file.delete();
+		size = -1;	// Counted again when next needed.
+		return null;
+	}
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+// Java packages
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Android packages
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+
+/*
+ * The image of one or more NPuzzleViews and the pieces cut
+ * from it, shared read only. Views showing the same Bitmap
+ * get the same TileSource from of(), and views of the same
+ * size and shape share one set of Tiles, so a board
+ * adds only its own game state.
+ *
+ * Both are reference counted: a view retains its source and
+ * acquires its tiles, and releases them when it changes them
+ * or is detached. The last release recycles the bitmaps.
+ *
+ * A source of a resource decodes it only when it first has
+ * to cut pieces, so tiles found in a TileCache skip both the
+ * decode and the scaling.
+ */
+
+public class TileSource
+{
+	private static final HashMap<Object, TileSource> sources = new HashMap<Object, TileSource>();
+
+	private final Object id;									// Key of sources, the image or resource id.
+	private final Resources resources;							// Of a resource, null for a bitmap.
+	private final int resource;
+	private Bitmap image;										// Null until a resource is decoded.
+	private int imageWidth = -1, imageHeight = -1;				// Size of the image, -1 until read.
+	private long hash;											// TileCache.hash() of the image,
+	private boolean isHashed;									// once computed.
+	private final ArrayList<Tiles> tiles = new ArrayList<Tiles>();
+	private final ArrayList<Cutting> cutting = new ArrayList<Cutting>();	// Guarded by tiles too.
+	private int references;
+
+	// Pieces of the image at one size and shape, read only.
+	public static class Tiles
+	{
+		public final int width, height;						// Of the scaled image.
+		public final int difficulty, rows;					// Pieces per row, and rows of pieces.
+		public final Bitmap[] pieces;						// In order of the solved board, the last blank.
+		public final Bitmap blank;
+		volatile int references;							// Guarded by the source's list of tiles.
+
+		Tiles(int width, int height, int difficulty, int rows, Bitmap[] pieces, Bitmap blank)
+		{
+			this.width = width;
+			this.height = height;
+			this.difficulty = difficulty;
+			this.rows = rows;
+			this.pieces = pieces;
+			this.blank = blank;
+		}
+
+		boolean matches(int width, int height, int columns, int rows)
+		{
+			return (this.width == width && this.height == height
+					&& difficulty == columns && this.rows == rows);
+		}
+
+		// Whether or not more than one view holds these tiles.
+		public boolean isShared()
+		{
+			return (references > 1);
+		}
+
+		// Bytes of every bitmap of these tiles.
+		public int getByteCount()
+		{
+			int bytes = blank.getRowBytes() * blank.getHeight();
+			for (int i = 0; i < pieces.length - 1; i++)
+				bytes += pieces[i].getRowBytes() * pieces[i].getHeight();
+
+			return bytes;
+		}
+	}
+
+	// Tiles being loaded or cut outside the lock, which later
+	// acquires of the same size and shape wait for.
+	private static class Cutting
+	{
+		final int width, height, columns, rows;
+		int waiting;										// Acquires waiting for the tiles.
+		boolean isDone;
+		Tiles done;											// Null if cutting them failed.
+
+		Cutting(int width, int height, int columns, int rows)
+		{
+			this.width = width;
+			this.height = height;
+			this.columns = columns;
+			this.rows = rows;
+		}
+
+		boolean matches(int width, int height, int columns, int rows)
+		{
+			return (this.width == width && this.height == height
+					&& this.columns == columns && this.rows == rows);
+		}
+	}
+
+	private TileSource(Object id, Bitmap image, Resources resources, int resource)
+	{
+		this.id = id;
+		this.image = image;
+		this.resources = resources;
+		this.resource = resource;
+	}
+
+	// The live source of image, or a new one. Retain it to keep it.
+	public static TileSource of(Bitmap image)
+	{
+		synchronized (sources)
+		{
+			TileSource source = sources.get(image);
+			if (source == null)
+			{
+				source = new TileSource(image, image, null, 0);
+				sources.put(image, source);
+			}
+
+			return source;
+		}
+	}
+
+	// The live source of the image resource id, or a new one that
+	// has not decoded it yet. Retain it to keep it.
+	public static TileSource of(Resources resources, int id)
+	{
+		synchronized (sources)
+		{
+			final Integer key = id;
+			TileSource source = sources.get(key);
+			if (source == null)
+			{
+				source = new TileSource(key, null, resources, id);
+				sources.put(key, source);
+			}
+
+			return source;
+		}
+	}
+
+	// The image, decoding a resource at its own size on first use.
+	public synchronized Bitmap getImage()
+	{
+		if (image == null)
+		{
+			final BitmapFactory.Options options = new BitmapFactory.Options();
+			options.inScaled = false;
+			image = BitmapFactory.decodeResource(resources, resource, options);
+		}
+
+		return image;
+	}
+
+	// Whether or not getImage() would return without decoding.
+	public synchronized boolean isDecoded()
+	{
+		return (image != null);
+	}
+
+	// Width of the image, without decoding it.
+	public int getWidth()
+	{
+		readSize();
+		return imageWidth;
+	}
+
+	// Height of the image, without decoding it.
+	public int getHeight()
+	{
+		readSize();
+		return imageHeight;
+	}
+
+	private synchronized void readSize()
+	{
+		if (imageWidth >= 0) return;
+
+		if (image != null)
+		{
+			imageWidth = image.getWidth();
+			imageHeight = image.getHeight();
+			return;
+		}
+
+		// Only read the size now.
+		final BitmapFactory.Options bounds = new BitmapFactory.Options();
+		bounds.inJustDecodeBounds = true;
+		bounds.inScaled = false;
+		BitmapFactory.decodeResource(resources, resource, bounds);
+		imageWidth = bounds.outWidth;
+		imageHeight = bounds.outHeight;
+	}
+
+	// TileCache.hash() of the encoded resource, or of the pixels of a bitmap.
+	public synchronized long getHash() throws IOException
+	{
+		if (!isHashed)
+		{
+			if (resources == null)
+				hash = TileCache.hash(image);
+			else
+			{
+				final InputStream in = resources.openRawResource(resource);
+				try
+				{
+					hash = TileCache.hash(in);
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+			isHashed = true;
+		}
+
+		return hash;
+	}
+
+	public void retain()
+	{
+		synchronized (sources)
+		{
+			++references;
+		}
+	}
+
+	// Drops a reference, recycling the image after the last one.
+	public void release()
+	{
+		synchronized (sources)
+		{
+			if (--references > 0) return;
+
+			sources.remove(id);
+			synchronized (this)
+			{
+				if (image != null) image.recycle();
+			}
+		}
+	}
+
+	// ====================
+	//        Tiles
+	// ====================
+
+	// Returns the pieces of the image scaled to width x height and cut
+	// difficulty x difficulty, each less border in both directions,
+	// cutting them only if no view already holds them.
+	public Tiles acquire(int width, int height, int difficulty, int border)
+	{
+		return acquire(width, height, difficulty, border, null);
+	}
+
+	// As acquire(), loading the pieces from cache when it has them,
+	// and storing them there after cutting them. cache may be null.
+	public Tiles acquire(int width, int height, int difficulty, int border, TileCache cache)
+	{
+		return acquire(width, height, difficulty, difficulty, border, cache);
+	}
+
+	// As acquire(), cut columns x rows. The list of tiles is only
+	// locked to look them up and add them: loading, cutting and
+	// storing happen outside it, once, while other acquires of the
+	// same tiles wait and acquires of others go on.
+	public Tiles acquire(int width, int height, int columns, int rows, int border, TileCache cache)
+	{
+		final Cutting mine;
+		synchronized (tiles)
+		{
+			Cutting other;
+			while ((other = find(width, height, columns, rows)) != null)
+			{
+				++other.waiting;
+				boolean isInterrupted = false;
+				while (!other.isDone)
+				{
+					try
+					{
+						tiles.wait();
+					}
+					catch (InterruptedException e)
+					{
+						isInterrupted = true;
+					}
+				}
+				if (isInterrupted) Thread.currentThread().interrupt();
+
+				// Counted as a reference already, unless it failed.
+				if (other.done != null) return other.done;
+			}
+
+			for (int i = 0; i < tiles.size(); i++)
+			{
+				final Tiles shared = tiles.get(i);
+				if (shared.matches(width, height, columns, rows))
+				{
+					++shared.references;
+					return shared;
+				}
+			}
+
+			mine = new Cutting(width, height, columns, rows);
+			cutting.add(mine);
+		}
+
+		Tiles cut = null;
+		try
+		{
+			try
+			{
+				if (cache != null) cut = cache.load(getHash(), width, height, columns, rows, border);
+			}
+			catch (IOException e) {} // Cut them instead.
+
+			if (cut == null)
+			{
+				cut = cut(width, height, columns, rows, border);
+				try
+				{
+					if (cache != null) cache.store(getHash(), cut, border);
+				}
+				catch (IOException e) {} // Cut again next time.
+			}
+		}
+		finally
+		{
+			synchronized (tiles)
+			{
+				if (cut != null)
+				{
+					cut.references = 1 + mine.waiting;
+					tiles.add(cut);
+				}
+				cutting.remove(mine);
+				mine.done = cut;
+				mine.isDone = true;
+				tiles.notifyAll();
+			}
+		}
+
+		return cut;
+	}
+
+	// The tiles of this size and shape being cut, or null.
+	private Cutting find(int width, int height, int columns, int rows)
+	{
+		for (int i = 0; i < cutting.size(); i++)
+			if (cutting.get(i).matches(width, height, columns, rows))
+				return cutting.get(i);
+
+		return null;
+	}
+
+	// Whether or not acquire() would neither decode nor cut.
+	public boolean isPrepared(int width, int height, int columns, int rows, int border, TileCache cache)
+	{
+		synchronized (tiles)
+		{
+			for (int i = 0; i < tiles.size(); i++)
+				if (tiles.get(i).matches(width, height, columns, rows))
+					return true;
+			if (find(width, height, columns, rows) != null) return true;
+		}
+
+		try
+		{
+			return (cache != null && cache.contains(getHash(), width, height, columns, rows, border));
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+
+	// Drops a reference to cut, recycling its bitmaps after the last one.
+	public void release(Tiles cut)
+	{
+		synchronized (tiles)
+		{
+			if (--cut.references > 0) return;
+
+			tiles.remove(cut);
+			cut.blank.recycle();
+			for (int i = 0; i < cut.pieces.length - 1; i++)
+				cut.pieces[i].recycle();
+		}
+	}
+
+	private Tiles cut(int width, int height, int columns, int rows, int border)
+	{
+		final int pieceWidth = width / columns,
+				  pieceHeight = height / rows,
+				  last = (columns * rows) - 1;
+		final Bitmap[] pieces = new Bitmap[columns * rows];
+
+		// Generate a scaled bitmap.
+		final Bitmap image = getImage(),
+					 scaled = Bitmap.createScaledBitmap(image, width, height, true);
+
+		// Initialize blank bitmap (no image required).
+		final Bitmap blank = Bitmap.createBitmap(pieceWidth - border, pieceHeight - border, Bitmap.Config.ARGB_4444);
+		blank.eraseColor(Color.TRANSPARENT);
+
+		// Cut every piece but the last, which is the blank.
+		for (int i = 0; i < rows; ++i)
+			for (int e = 0; e < columns; ++e)
+				if ((i * columns) + e != last)
+					pieces[(i * columns) + e] = Bitmap.createBitmap(scaled,
+							pieceWidth * e, pieceHeight * i, pieceWidth - border, pieceHeight - border);
+		pieces[last] = blank;
+
+		if (scaled != image) scaled.recycle(); // Clean up.
+
+		return new Tiles(width, height, columns, rows, pieces, blank);
+	}
+}
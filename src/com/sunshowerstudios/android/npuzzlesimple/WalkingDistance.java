@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple;
+
+// Java packages
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Walking distance estimate of the moves left to solve a
+ * board, kept up to date in O(1) per move. Vertically, a
+ * board is reduced to how many pieces of each goal row are
+ * in each row, and where the blank is; the fewest vertical
+ * moves between two such states is found once per shape by
+ * a breadth first search from the solved one. Horizontal
+ * moves are the same on columns. The sum of both counts is
+ * a lower bound, and is stronger than Manhattan distance as
+ * pieces of one row must take turns passing the blank.
+ *
+ * Each state is an index into primitive tables shared by
+ * every board of its shape: its distance, and the state a
+ * move of a piece of each goal line leads to, so a move is
+ * one lookup. Sides are at most MAX_LINES: the tables of
+ * a 4x4 board are about 1MB, those of a 4x5 nearly 300MB.
+ */
+
+public class WalkingDistance
+{
+	public static final int MAX_LINES = 4;					// Longest side of a board with tables.
+	private static final Table[][] sTables					// By lines, then pieces per line.
+					= new Table[MAX_LINES + 1][MAX_LINES + 1];
+
+	private final int width, height, size;
+	private final Table rowTable,							// Rows of goal rows, vertical moves.
+						colTable;							// Columns of goal columns, horizontal moves.
+	private int rowState, colState;
+
+	// Distances and moves of every state of lines lines, each of
+	// length pieces, the blank counting as a piece of the last.
+	private static final class Table
+	{
+		final int lines;
+		final long[] keys;									// Sorted, of each state.
+		final byte[] distances;								// Vertical moves to the solved state.
+		final int[] next;									// Of [(state * 2 + toward) * lines + goal], or -1.
+
+		Table(int lines, int length)
+		{
+			this.lines = lines;
+
+			// Breadth first from the solved state, where every line holds
+			// its own pieces and the blank is in the last line.
+			final int[] counts = new int[lines * lines];
+			for (int i = 0; i < lines; i++)
+				counts[i * lines + i] = length;
+			counts[lines * lines - 1] = length - 1;
+
+			final HashMap<Long, Integer> seen = new HashMap<Long, Integer>();
+			long[] queue = new long[1024];
+			byte[] depths = new byte[1024];
+			queue[0] = key(counts, lines - 1, lines);
+			seen.put(queue[0], 0);
+			int head = 0, tail = 1;
+
+			while (head < tail)
+			{
+				final long state = queue[head];
+				final int depth = depths[head++],
+						  blank = decode(state, counts, lines, length);
+
+				// A piece of the line above or below slides into the blank's.
+				for (int toward = 0; toward < 2; toward++)
+				{
+					final int line = blank + ((toward == 0) ? -1 : 1);
+					if (line < 0 || line >= lines) continue;
+
+					for (int goal = 0; goal < lines; goal++)
+					{
+						if (counts[line * lines + goal] == 0) continue;
+
+						--counts[line * lines + goal];
+						++counts[blank * lines + goal];
+						final Long moved = key(counts, line, lines);
+						++counts[line * lines + goal];
+						--counts[blank * lines + goal];
+
+						if (seen.containsKey(moved)) continue;
+						if (tail == queue.length)
+						{
+							final long[] grownQueue = new long[tail * 2];
+							final byte[] grownDepths = new byte[tail * 2];
+							System.arraycopy(queue, 0, grownQueue, 0, tail);
+							System.arraycopy(depths, 0, grownDepths, 0, tail);
+							queue = grownQueue;
+							depths = grownDepths;
+						}
+						seen.put(moved, tail);
+						queue[tail] = moved;
+						depths[tail++] = (byte) (depth + 1);
+					}
+				}
+			}
+
+			// Index states by sorted key, so a board's state is a binary search.
+			keys = new long[tail];
+			System.arraycopy(queue, 0, keys, 0, tail);
+			Arrays.sort(keys);
+			distances = new byte[tail];
+			next = new int[tail * 2 * lines];
+			for (int state = 0; state < tail; state++)
+			{
+				distances[state] = depths[seen.get(keys[state])];
+
+				final int blank = decode(keys[state], counts, lines, length);
+				for (int toward = 0; toward < 2; toward++)
+				{
+					final int line = blank + ((toward == 0) ? -1 : 1);
+					for (int goal = 0; goal < lines; goal++)
+					{
+						int moved = -1;
+						if (line >= 0 && line < lines && counts[line * lines + goal] > 0)
+						{
+							--counts[line * lines + goal];
+							++counts[blank * lines + goal];
+							moved = Arrays.binarySearch(keys, key(counts, line, lines));
+							++counts[line * lines + goal];
+							--counts[blank * lines + goal];
+						}
+						next[(state * 2 + toward) * lines + goal] = moved;
+					}
+				}
+			}
+		}
+
+		// State of counts, or -1 if it is not reachable.
+		int find(int[] counts, int blank)
+		{
+			final int state = Arrays.binarySearch(keys, key(counts, blank, lines));
+			return (state < 0) ? -1 : state;
+		}
+
+		// Bytes of the tables.
+		long getByteCount()
+		{
+			return keys.length * 8L + distances.length + next.length * 4L;
+		}
+	}
+
+	// Packs counts, 3 bits each less the last goal of each line which
+	// follows from the length, and the blank's line into a key.
+	private static long key(int[] counts, int blank, int lines)
+	{
+		long key = blank;
+		for (int line = 0; line < lines; line++)
+			for (int goal = 0; goal < lines - 1; goal++)
+				key = (key << 3) | counts[line * lines + goal];
+
+		return key;
+	}
+
+	// Unpacks key into counts, returns the blank's line.
+	private static int decode(long key, int[] counts, int lines, int length)
+	{
+		final int blank = (int) (key >>> (3 * lines * (lines - 1)));
+		for (int line = lines - 1; line >= 0; line--)
+		{
+			// The blank takes the place of one piece of its line.
+			int last = (line == blank) ? length - 1 : length;
+			for (int goal = lines - 2; goal >= 0; goal--, key >>>= 3)
+			{
+				counts[line * lines + goal] = (int) (key & 7);
+				last -= counts[line * lines + goal];
+			}
+			counts[line * lines + lines - 1] = last;
+		}
+
+		return blank;
+	}
+
+	private static synchronized Table table(int lines, int length)
+	{
+		if (sTables[lines][length] == null)
+			sTables[lines][length] = new Table(lines, length);
+
+		return sTables[lines][length];
+	}
+
+	// Whether or not boards of width x height have tables.
+	public static boolean isSupported(int width, int height)
+	{
+		return (width >= 2 && height >= 2 && width <= MAX_LINES && height <= MAX_LINES);
+	}
+
+	// Builds the tables of the shape on first use, which takes a
+	// while for the largest; later boards of the shape share them.
+	public WalkingDistance(int width, int height)
+	{
+		if (!isSupported(width, height))
+			throw new IllegalArgumentException("No walking distance tables for " + width + "x" + height);
+
+		this.width = width;
+		this.height = height;
+		size = width * height;
+		rowTable = table(height, width);
+		colTable = table(width, height);
+	}
+
+	// Recomputes both states from board, O(size).
+	public void reset(int[] board)
+	{
+		final int[] rows = new int[height * height],
+					cols = new int[width * width];
+		int blank = 0;
+		for (int i = 0; i < size; i++)
+		{
+			if (board[i] == size - 1)
+			{
+				blank = i;
+				continue;
+			}
+
+			++rows[(i / width) * height + board[i] / width];
+			++cols[(i % width) * width + board[i] % width];
+		}
+
+		rowState = rowTable.find(rows, blank / width);
+		colState = colTable.find(cols, blank % width);
+		if (rowState < 0 || colState < 0)
+			throw new IllegalArgumentException("Not a board of " + width + "x" + height);
+	}
+
+	// Updates the estimate for piece sliding from `from`
+	// into the blank piece at `to`, O(1).
+	public void moveTile(int piece, int from, int to)
+	{
+		final int fromRow = from / width, toRow = to / width;
+		if (fromRow != toRow)
+		{
+			// The blank moves up (toward 0) or down a row.
+			final int toward = (fromRow < toRow) ? 0 : 1;
+			rowState = rowTable.next[(rowState * 2 + toward) * height + piece / width];
+		}
+		else
+		{
+			final int toward = (from < to) ? 0 : 1;
+			colState = colTable.next[(colState * 2 + toward) * width + piece % width];
+		}
+	}
+
+	// Vertical plus horizontal walking distance, a lower
+	// bound on the moves left. Zero only when solved.
+	public int getEstimate()
+	{
+		return rowTable.distances[rowState] + colTable.distances[colState];
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	// Bytes of the tables of boards of width x height, building them if need be.
+	public static long getTableBytes(int width, int height)
+	{
+		return (width == height) ? table(height, width).getByteCount()
+				: table(height, width).getByteCount() + table(width, height).getByteCount();
+	}
+}
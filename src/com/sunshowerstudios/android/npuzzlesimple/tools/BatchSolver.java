@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple.tools;
+
+// Java packages
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.sunshowerstudios.android.npuzzlesimple.PuzzleSolver;
+import com.sunshowerstudios.android.npuzzlesimple.SolutionCache;
+
+/*
+ * Headless batch solver. Streams boards from a file, solves
+ * them on a fixed pool of threads and writes one line per
+ * board in input order. At most `maxInFlight` boards are
+ * read ahead of the writer, so reading blocks when solving
+ * falls behind and memory stays flat whatever the input size.
+ *
+ * Input is a sequence of records, each one byte holding the
+ * width followed by width * width bytes of the board in row
+ * order (see PuzzleMoves). Output lines are
+ *
+ *   index width length nodes micros moves
+ *
+ * where moves is a string of U, D, R and L, and length is -1
+ * for boards that are invalid, unsolvable or over budget.
+ *
+ * Usage: BatchSolver <in> <out> [threads] [maxNodes] [cacheDirectory]
+ *
+ * A cache directory is held by one process at a time, so a
+ * run fails to start while a SolveDaemon or another batch
+ * uses the same one.
+ */
+
+public class BatchSolver
+{
+	private static final char[] MOVE_NAMES = { 'U', 'D', 'R', 'L' };
+	private static final int MAX_WIDTH = 15;				// Widest board a record can hold.
+	private static final long CACHE_BYTES = 256L << 20;
+
+	private final int threads, maxInFlight;
+	private final long maxNodes;
+	private SolutionCache cache;
+	private long boards, unsolved;
+
+	public BatchSolver(int threads, int maxInFlight, long maxNodes)
+	{
+		this.threads = threads;
+		this.maxInFlight = maxInFlight;
+		this.maxNodes = maxNodes;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: BatchSolver <in> <out> [threads] [maxNodes] [cacheDirectory]");
+			System.exit(1);
+		}
+
+		final int threads = (args.length > 2) ? Integer.parseInt(args[2])
+				: Runtime.getRuntime().availableProcessors();
+		final long maxNodes = (args.length > 3) ? Long.parseLong(args[3]) : Long.MAX_VALUE;
+
+		final BatchSolver solver = new BatchSolver(threads, threads * 4, maxNodes);
+		final SolutionCache cache = (args.length > 4) ? SolutionCache.open(new File(args[4]), CACHE_BYTES) : null;
+		solver.setSolutionCache(cache);
+		final InputStream in = new BufferedInputStream(new FileInputStream(args[0]), 1 << 16);
+		final Writer out = new BufferedWriter(new FileWriter(args[1]), 1 << 16);
+		final long start = System.nanoTime();
+
+		try
+		{
+			solver.run(in, out);
+		}
+		finally
+		{
+			in.close();
+			out.close();
+			if (cache != null) cache.close();
+		}
+
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.err.println(solver.getBoards() + " boards, " + solver.getUnsolved() + " unsolved, "
+				+ String.format("%.2f", seconds) + "s, "
+				+ String.format("%.1f", solver.getBoards() / seconds) + " boards/s");
+	}
+
+	// Setter of the cache shared by every solver thread, null for none.
+	public void setSolutionCache(SolutionCache cache)
+	{
+		this.cache = cache;
+	}
+
+	// Number of boards read by the last run().
+	public long getBoards()
+	{
+		return boards;
+	}
+
+	// Number of boards of the last run() without a solution.
+	public long getUnsolved()
+	{
+		return unsolved;
+	}
+
+	// Solves every record of in and writes results to out, in order.
+	public void run(InputStream in, final Writer out) throws IOException, InterruptedException
+	{
+		final DataInputStream data = new DataInputStream(in);
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		final BlockingQueue<Future<Result>> pending = new ArrayBlockingQueue<Future<Result>>(maxInFlight);
+		final Future<Result> end = new FutureTask<Result>(new Callable<Result>()
+		{
+			public Result call()
+			{
+				return null;
+			}
+		});
+		final IOException[] writeError = new IOException[1];
+
+		boards = unsolved = 0;
+
+		// Write results as they complete, in the order they were read.
+		final Thread writer = new Thread("BatchSolver-writer")
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					Future<Result> next;
+					while ((next = pending.take()) != end)
+					{
+						// Keep draining after an error, so the reader never blocks.
+						if (writeError[0] != null) continue;
+
+						try
+						{
+							final Result result = next.get();
+							if (result.moves == null) ++unsolved;
+							result.write(out);
+						}
+						catch (IOException e)
+						{
+							writeError[0] = e;
+						}
+						catch (ExecutionException e)
+						{
+							writeError[0] = new IOException(e.getCause().toString());
+						}
+					}
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		writer.start();
+
+		try
+		{
+			int[] board;
+			while (writeError[0] == null && (board = readBoard(data)) != null)
+			{
+				final long index = boards++;
+				final int[] task = board;
+
+				// Blocks when maxInFlight boards are waiting, back-pressure on the reader.
+				pending.put(pool.submit(new Callable<Result>()
+				{
+					public Result call()
+					{
+						return solve(index, task);
+					}
+				}));
+			}
+		}
+		finally
+		{
+			pending.put(end);
+			writer.join();
+			pool.shutdown();
+		}
+
+		if (writeError[0] != null) throw writeError[0];
+		out.flush();
+	}
+
+	// Reads one record, returns null at the end of the input.
+	public static int[] readBoard(DataInputStream in) throws IOException
+	{
+		final int width;
+		try
+		{
+			width = in.readUnsignedByte();
+		}
+		catch (EOFException e)
+		{
+			return null;
+		}
+
+		if (width < 2 || width > MAX_WIDTH)
+			throw new IOException("Bad board width " + width);
+
+		final byte[] raw = new byte[width * width];
+		in.readFully(raw);
+
+		final int[] board = new int[raw.length];
+		for (int i = 0; i < raw.length; i++)
+			board[i] = raw[i] & 0xFF;
+
+		return board;
+	}
+
+	// Writes board as one record, for generators of input files.
+	public static void writeBoard(DataOutputStream out, int width, int[] board) throws IOException
+	{
+		out.writeByte(width);
+		for (int i = 0; i < board.length; i++)
+			out.writeByte(board[i]);
+	}
+
+	// Convenience for writeBoard callers holding a plain stream.
+	public static DataOutputStream openBoards(OutputStream out)
+	{
+		return new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+	}
+
+	// Solves one board with this thread's solver.
+	private Result solve(long index, int[] board)
+	{
+		final int width = (int) Math.sqrt(board.length);
+		final Result result = new Result(index, width);
+
+		if (!isPermutation(board)) return result;
+
+		final PuzzleSolver solver = solverFor(width);
+		final long start = System.nanoTime();
+		result.moves = solver.solve(board);
+		result.micros = (System.nanoTime() - start) / 1000;
+		result.nodes = solver.getNodesExpanded();
+
+		return result;
+	}
+
+	private final ThreadLocal<PuzzleSolver[]> solvers = new ThreadLocal<PuzzleSolver[]>()
+	{
+		@Override
+		protected PuzzleSolver[] initialValue()
+		{
+			return new PuzzleSolver[MAX_WIDTH + 1];
+		}
+	};
+
+	private PuzzleSolver solverFor(int width)
+	{
+		final PuzzleSolver[] cache = solvers.get();
+		if (cache[width] == null)
+		{
+			cache[width] = new PuzzleSolver(width);
+			cache[width].setMaxNodes(maxNodes);
+			cache[width].setSolutionCache(this.cache);
+		}
+
+		return cache[width];
+	}
+
+	// Whether or not board holds each piece exactly once.
+	private static boolean isPermutation(int[] board)
+	{
+		final boolean[] seen = new boolean[board.length];
+		for (int i = 0; i < board.length; i++)
+		{
+			if (board[i] >= board.length || seen[board[i]]) return false;
+			seen[board[i]] = true;
+		}
+
+		return true;
+	}
+
+	// Outcome of one board.
+	private static class Result
+	{
+		final long index;
+		final int width;
+		int[] moves;
+		long nodes, micros;
+
+		Result(long index, int width)
+		{
+			this.index = index;
+			this.width = width;
+		}
+
+		void write(Writer out) throws IOException
+		{
+			out.write(Long.toString(index));
+			out.write(' ');
+			out.write(Integer.toString(width));
+			out.write(' ');
+			out.write(Integer.toString((moves == null) ? -1 : moves.length));
+			out.write(' ');
+			out.write(Long.toString(nodes));
+			out.write(' ');
+			out.write(Long.toString(micros));
+			out.write(' ');
+			if (moves != null)
+				for (int i = 0; i < moves.length; i++)
+					out.write(MOVE_NAMES[moves[i]]);
+			out.write('\n');
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple.tools;
+
+// Java packages
+import java.util.Random;
+
+import com.sunshowerstudios.android.npuzzlesimple.PuzzleMoves;
+import com.sunshowerstudios.android.npuzzlesimple.PuzzleSolver;
+
+/*
+ * Compares the array and bitboard searches of PuzzleSolver
+ * on the same random 4x4 boards, checking they agree on the
+ * solution length of every board, and prints nodes per
+ * second of each. Exits with 1 if any length differs.
+ *
+ * Usage: BitboardBenchmark [boards] [scrambleMoves] [seed]
+ *
+ * The bitboard search is only used without a pattern
+ * database, so there is no database to compare with.
+ */
+
+public class BitboardBenchmark
+{
+	public static void main(String[] args)
+	{
+		final int count = (args.length > 0) ? Integer.parseInt(args[0]) : 50,
+				  scramble = (args.length > 1) ? Integer.parseInt(args[1]) : 80;
+		final long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+
+		final int[][] boards = scrambledBoards(4, count, scramble, new Random(seed));
+		final int[] arrayLengths = new int[boards.length],
+					packedLengths = new int[boards.length];
+
+		// Warm up both paths before timing them.
+		run(boards, false, 3, arrayLengths);
+		run(boards, true, 3, packedLengths);
+
+		final long[] array = run(boards, false, boards.length, arrayLengths),
+					 packed = run(boards, true, boards.length, packedLengths);
+
+		report("array", array);
+		report("bitboard", packed);
+		System.out.println(String.format("speedup %.2fx", nodesPerSecond(packed) / nodesPerSecond(array)));
+
+		for (int i = 0; i < boards.length; i++)
+		{
+			if (arrayLengths[i] != packedLengths[i])
+			{
+				System.err.println("Board " + i + ": bitboard found length " + packedLengths[i]
+						+ ", array " + arrayLengths[i]);
+				System.exit(1);
+			}
+		}
+	}
+
+	// Random walks of scramble moves back from the solved board.
+	static int[][] scrambledBoards(int width, int count, int scramble, Random random)
+	{
+		final int size = width * width;
+		final int[][] boards = new int[count][size];
+		final int[] legal = new int[PuzzleMoves.COUNT];
+
+		for (int b = 0; b < count; b++)
+		{
+			final int[] board = boards[b];
+			for (int i = 0; i < size; i++)
+				board[i] = i;
+
+			int blank = size - 1, last = PuzzleMoves.NONE;
+			for (int m = 0; m < scramble; )
+			{
+				final int move = legal[random.nextInt(PuzzleMoves.legalMoves(blank, width, legal))],
+						  from = PuzzleMoves.pieceFor(move, blank, width);
+				if (move == PuzzleMoves.opposite(last)) continue;
+
+				board[blank] = board[from];
+				board[from] = size - 1;
+				blank = from;
+				last = move;
+				++m;
+			}
+		}
+
+		return boards;
+	}
+
+	// Returns { total length, nodes, nanoseconds } of solving the first
+	// count boards, and the length of each in lengths.
+	private static long[] run(int[][] boards, boolean bitboard, int count, int[] lengths)
+	{
+		final PuzzleSolver solver = new PuzzleSolver(4);
+		solver.setBitboardEnabled(bitboard);
+
+		final long[] totals = new long[3];
+		final long start = System.nanoTime();
+		for (int i = 0; i < count && i < boards.length; i++)
+		{
+			lengths[i] = solver.solve(boards[i]).length;
+			totals[0] += lengths[i];
+			totals[1] += solver.getNodesExpanded();
+		}
+		totals[2] = System.nanoTime() - start;
+
+		return totals;
+	}
+
+	private static double nodesPerSecond(long[] totals)
+	{
+		return totals[1] / (totals[2] / 1e9);
+	}
+
+	private static void report(String name, long[] totals)
+	{
+		System.out.println(String.format("%-8s length %d nodes %d time %.2fs %.1fM nodes/s",
+				name, totals[0], totals[1], totals[2] / 1e9, nodesPerSecond(totals) / 1e6));
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple.tools;
+
+// Java packages
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.sunshowerstudios.android.npuzzlesimple.PatternDatabase;
+import com.sunshowerstudios.android.npuzzlesimple.PuzzleSolver;
+import com.sunshowerstudios.android.npuzzlesimple.WalkingDistance;
+
+/*
+ * Compares the heuristics of PuzzleSolver on the same random
+ * 4x4 boards: Manhattan distance plus linear conflict alone,
+ * with walking distance, with a pattern database, and with
+ * both. Every search is the array one, so node counts and
+ * times differ only by the heuristic. Checks all agree on
+ * solution length, and prints nodes, time and table bytes.
+ *
+ * Usage: HeuristicBenchmark [boards] [scrambleMoves] [seed] [pdbDirectory]
+ *
+ * Without pdbDirectory the pattern database runs are skipped.
+ */
+
+public class HeuristicBenchmark
+{
+	private static final int WIDTH = 4;
+
+	public static void main(String[] args) throws IOException
+	{
+		final int count = (args.length > 0) ? Integer.parseInt(args[0]) : 50,
+				  scramble = (args.length > 1) ? Integer.parseInt(args[1]) : 80;
+		final long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+		final PatternDatabase database = (args.length > 3) ? PatternDatabase.open(new File(args[3]), WIDTH) : null;
+
+		final int[][] boards = BitboardBenchmark.scrambledBoards(WIDTH, count, scramble, new Random(seed));
+
+		// Build the walking distance tables before timing, and warm up.
+		final long start = System.nanoTime();
+		final long walkingBytes = WalkingDistance.getTableBytes(WIDTH, WIDTH);
+		System.out.println(String.format("walking distance tables %d bytes in %.1fms",
+				walkingBytes, (System.nanoTime() - start) / 1e6));
+		run(boards, false, null, 3);
+		run(boards, true, null, 3);
+
+		final long[] manhattan = run(boards, false, null, boards.length),
+					 walking = run(boards, true, null, boards.length);
+		report("manhattan", manhattan, 0);
+		report("walking", walking, walkingBytes);
+		check("walking", walking, manhattan);
+
+		if (database == null) return;
+
+		final long[] pattern = run(boards, false, database, boards.length),
+					 both = run(boards, true, database, boards.length);
+		report("pdb", pattern, database.getTableBytes());
+		report("pdb+walking", both, database.getTableBytes() + walkingBytes);
+		check("pdb", pattern, manhattan);
+		check("pdb+walking", both, manhattan);
+	}
+
+	// Returns { total length, nodes, nanoseconds } of solving the first count boards.
+	private static long[] run(int[][] boards, boolean walking, PatternDatabase database, int count)
+	{
+		final PuzzleSolver solver = new PuzzleSolver(WIDTH);
+		solver.setBitboardEnabled(false);
+		solver.setWalkingDistanceEnabled(walking);
+		solver.setPatternDatabase(database);
+
+		final long[] totals = new long[3];
+		final long start = System.nanoTime();
+		for (int i = 0; i < count && i < boards.length; i++)
+		{
+			totals[0] += solver.solve(boards[i]).length;
+			totals[1] += solver.getNodesExpanded();
+		}
+		totals[2] = System.nanoTime() - start;
+
+		return totals;
+	}
+
+	private static void check(String name, long[] totals, long[] expected)
+	{
+		if (totals[0] != expected[0])
+		{
+			System.err.println(name + " found length " + totals[0] + ", expected " + expected[0]);
+			System.exit(1);
+		}
+	}
+
+	private static void report(String name, long[] totals, long tableBytes)
+	{
+		System.out.println(String.format("%-12s length %d nodes %d time %.2fs %.1fM nodes/s tables %dKB",
+				name, totals[0], totals[1], totals[2] / 1e9, totals[1] / (totals[2] / 1e3), tableBytes >> 10));
+	}
+}
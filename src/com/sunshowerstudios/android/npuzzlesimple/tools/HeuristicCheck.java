@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple.tools;
+
+// Java packages
+import java.util.Random;
+
+import com.sunshowerstudios.android.npuzzlesimple.PuzzleHeuristic;
+import com.sunshowerstudios.android.npuzzlesimple.PuzzleMoves;
+
+/*
+ * Checks PuzzleHeuristic on every board shape from 2x2 up to
+ * maxWidth x maxWidth: the solved board must estimate to 0,
+ * and after every move of a random walk the estimate kept up
+ * to date move by move must equal one recomputed from the
+ * board, and be 0 only on the solved board. Lines longer than
+ * the conflict tables are covered from 7 on. The exit status
+ * is 1 if any check failed.
+ *
+ * Usage: HeuristicCheck [maxWidth] [moves] [seed]
+ */
+
+public class HeuristicCheck
+{
+	public static void main(String[] args)
+	{
+		final int maxWidth = (args.length > 0) ? Integer.parseInt(args[0]) : 16,
+				  moves = (args.length > 1) ? Integer.parseInt(args[1]) : 2000;
+		final Random random = new Random((args.length > 2) ? Long.parseLong(args[2]) : 1);
+
+		int failures = 0;
+		for (int width = 2; width <= maxWidth; width++)
+			for (int height = 2; height <= maxWidth; height++)
+				failures += check(width, height, moves, random);
+
+		System.out.println(failures + " failures up to " + maxWidth + "x" + maxWidth);
+		if (failures > 0) System.exit(1);
+	}
+
+	// Returns the number of failed checks of width x height boards.
+	private static int check(int width, int height, int moves, Random random)
+	{
+		final int size = width * height;
+		final int[] board = new int[size],
+					neighbours = PuzzleMoves.neighbours(width, height);
+		for (int i = 0; i < size; i++)
+			board[i] = i;
+
+		final PuzzleHeuristic kept = new PuzzleHeuristic(width, height),
+							  fresh = new PuzzleHeuristic(width, height);
+		kept.reset(board);
+		if (kept.getEstimate() != 0)
+		{
+			System.err.println(width + "x" + height + " solved board estimates " + kept.getEstimate());
+			return 1;
+		}
+
+		int blank = size - 1;
+		for (int m = 0; m < moves; m++)
+		{
+			final int from = neighbours[(blank << 2) | random.nextInt(PuzzleMoves.COUNT)];
+			if (from < 0) continue;
+
+			kept.moveTile(board[from], from, blank);
+			board[blank] = board[from];
+			board[from] = size - 1;
+			blank = from;
+
+			fresh.reset(board);
+			boolean isSolved = true;
+			for (int i = 0; i < size && isSolved; i++)
+				isSolved = (board[i] == i);
+
+			if (kept.getEstimate() != fresh.getEstimate() || kept.getHash() != fresh.getHash()
+					|| (kept.getEstimate() == 0) != isSolved)
+			{
+				System.err.println(width + "x" + height + " after " + (m + 1) + " moves estimates "
+						+ kept.getEstimate() + ", recomputed " + fresh.getEstimate() + ", solved " + isSolved);
+				return 1;
+			}
+		}
+
+		return 0;
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple.tools;
+
+// Java packages
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.sunshowerstudios.android.npuzzlesimple.PatternDatabase;
+import com.sunshowerstudios.android.npuzzlesimple.PuzzleSolver;
+
+/*
+ * Reports the strength of the default pattern database of a
+ * square board against the bytes of its tables, for every
+ * encoding and compression, with and without reflection, to
+ * choose one per device class. Strength is the mean estimate
+ * of random boards, and optionally the nodes and time of
+ * solving some of them with the array search.
+ *
+ * Usage: PatternDatabaseReport [width] [samples] [scrambleMoves] [solveBoards] [seed] [pdbDirectory]
+ *
+ * solveBoards defaults to 20 up to 4x4 and 0 above. With
+ * pdbDirectory the byte tables are loaded from, or saved to,
+ * it rather than built each run.
+ */
+
+public class PatternDatabaseReport
+{
+	private static final int[][] STORAGE = {				// { encoding, compression } of each row.
+		{ PatternDatabase.BYTE, 1 }, { PatternDatabase.BYTE, 2 }, { PatternDatabase.BYTE, 4 },
+		{ PatternDatabase.NIBBLE, 1 }, { PatternDatabase.NIBBLE, 2 }, { PatternDatabase.NIBBLE, 4 },
+		{ PatternDatabase.MOD3, 1 } };
+
+	public static void main(String[] args) throws IOException
+	{
+		final int width = (args.length > 0) ? Integer.parseInt(args[0]) : 4,
+				  samples = (args.length > 1) ? Integer.parseInt(args[1]) : 1000,
+				  scramble = (args.length > 2) ? Integer.parseInt(args[2]) : 80,
+				  solves = (args.length > 3) ? Integer.parseInt(args[3]) : (width <= 4) ? 20 : 0;
+		final long seed = (args.length > 4) ? Long.parseLong(args[4]) : 1;
+
+		final long start = System.nanoTime();
+		final PatternDatabase full = (args.length > 5) ? PatternDatabase.open(new File(args[5]), width)
+				: PatternDatabase.build(width, PatternDatabase.defaultPatterns(width));
+		System.out.println(String.format("%dx%d byte tables in %.1fs", width, width, (System.nanoTime() - start) / 1e9));
+
+		final int[][] sampled = BitboardBenchmark.scrambledBoards(width, samples, scramble, new Random(seed)),
+					  solved = BitboardBenchmark.scrambledBoards(width, solves, scramble, new Random(seed + 1));
+		final double fullMean = meanEstimate(full, sampled);
+
+		System.out.println(String.format("%-20s %10s %8s %8s %10s %8s", "storage", "bytes", "mean", "ratio", "nodes", "seconds"));
+		for (int s = 0; s < STORAGE.length; s++)
+		{
+			final PatternDatabase database = (s == 0) ? full : full.compress(STORAGE[s][0], STORAGE[s][1]);
+			for (int reflected = 0; reflected < 2; reflected++)
+			{
+				database.setReflectionEnabled(reflected == 1);
+				final double mean = meanEstimate(database, sampled);
+				final long[] totals = solve(database, solved);
+
+				System.out.println(String.format("%-20s %10d %8.2f %8.3f %10d %8.2f",
+						name(STORAGE[s][0], STORAGE[s][1], reflected == 1), database.getTableBytes(),
+						mean, mean / fullMean, totals[0], totals[1] / 1e9));
+			}
+			database.setReflectionEnabled(false);
+		}
+	}
+
+	private static String name(int encoding, int compression, boolean reflected)
+	{
+		return PatternDatabase.nameOf(encoding) + ((compression == 1) ? "" : " min" + compression)
+				+ (reflected ? " +reflect" : "");
+	}
+
+	// Mean estimate of boards.
+	private static double meanEstimate(PatternDatabase database, int[][] boards)
+	{
+		final int[] positions = new int[database.getWidth() * database.getHeight()];
+		long total = 0;
+		for (int b = 0; b < boards.length; b++)
+		{
+			for (int i = 0; i < positions.length; i++)
+				positions[boards[b][i]] = i;
+			total += database.estimate(positions);
+		}
+
+		return (boards.length == 0) ? 0 : total / (double) boards.length;
+	}
+
+	// Returns { nodes, nanoseconds } of solving boards.
+	private static long[] solve(PatternDatabase database, int[][] boards)
+	{
+		final PuzzleSolver solver = new PuzzleSolver(database.getWidth());
+		solver.setBitboardEnabled(false);
+		solver.setPatternDatabase(database);
+
+		final long[] totals = new long[2];
+		final long start = System.nanoTime();
+		for (int b = 0; b < boards.length; b++)
+		{
+			solver.solve(boards[b]);
+			totals[0] += solver.getNodesExpanded();
+		}
+		totals[1] = System.nanoTime() - start;
+
+		return totals;
+	}
+}
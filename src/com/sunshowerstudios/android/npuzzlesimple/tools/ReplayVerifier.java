@@ -0,0 +1,344 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple.tools;
+
+// Java packages
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sunshowerstudios.android.npuzzlesimple.MoveLog;
+import com.sunshowerstudios.android.npuzzlesimple.PuzzleMoves;
+import com.sunshowerstudios.android.npuzzlesimple.SavedBoard;
+
+/*
+ * Checks leaderboard submissions by replaying them. Each
+ * submission is the claimed move count as an int followed by
+ * a replay as written by NPuzzleView.writeReplay(): the start
+ * board's exportState() and its MoveLog.
+ *
+ * A replay is valid if every move slides a piece into the
+ * blank, the board is first solved by the last move (the
+ * view takes no moves once solved) and the start's moves
+ * plus the log's equal the claim. Moves are read straight
+ * from the log's packed words and the number of misplaced
+ * pieces is kept as they move, so a move is a table lookup
+ * and a swap with nothing allocated.
+ *
+ * Usage: ReplayVerifier <submissions> <out> [threads]
+ *        ReplayVerifier -generate <submissions> <count> <width> <moves> [seed]
+ *
+ * Writes "index result" per submission and prints moves
+ * verified per second.
+ */
+
+public class ReplayVerifier
+{
+	public static final int VALID = 0,
+							ILLEGAL_MOVE = 1,			// A move with no piece to slide.
+							MOVED_AFTER_SOLVE = 2,		// Solved before the last move.
+							NOT_SOLVED = 3,
+							WRONG_COUNT = 4;			// Solved, but not in the claimed moves.
+	private static final String[] RESULTS = { "valid", "illegal-move", "moved-after-solve", "not-solved", "wrong-count" };
+	private static final int CHUNK = 16;				// Submissions a thread takes at a time.
+
+	public static void main(String[] args) throws Exception
+	{
+		if (args.length > 0 && args[0].equals("-generate"))
+		{
+			if (args.length < 5)
+				usage();
+			generate(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]),
+					(args.length > 5) ? Long.parseLong(args[5]) : 1);
+			return;
+		}
+
+		if (args.length < 2)
+			usage();
+
+		final int threads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		final List<Submission> submissions = read(args[0]);
+		final int[] results = new int[submissions.size()];
+
+		final long start = System.nanoTime();
+		final long moves = verifyAll(submissions, results, threads);
+		final long elapsed = System.nanoTime() - start;
+
+		final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1]), "US-ASCII"));
+		final int[] counts = new int[RESULTS.length];
+		try
+		{
+			for (int i = 0; i < results.length; i++)
+			{
+				out.write(i + " " + RESULTS[results[i]] + "\n");
+				++counts[results[i]];
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+
+		System.out.println(String.format("%d replays, %d valid, %d moves in %.3fs, %.1fM moves/s on %d threads",
+				results.length, counts[VALID], moves, elapsed / 1e9, moves / (elapsed / 1e3), threads));
+	}
+
+	private static void usage()
+	{
+		System.err.println("Usage: ReplayVerifier <submissions> <out> [threads]");
+		System.err.println("       ReplayVerifier -generate <submissions> <count> <width> <moves> [seed]");
+		System.exit(1);
+	}
+
+	// ====================
+	//     Verification
+	// ====================
+
+	// One decoded submission.
+	public static class Submission
+	{
+		public final SavedBoard start;
+		public final MoveLog log;
+		public final int claimedMoves;
+
+		public Submission(SavedBoard start, MoveLog log, int claimedMoves)
+		{
+			this.start = start;
+			this.log = log;
+			this.claimedMoves = claimedMoves;
+		}
+
+		// Replays this submission on board, scratch of at least width * height.
+		public int verify(int[] board)
+		{
+			if ((long) start.moves + log.size() != claimedMoves)
+				return WRONG_COUNT;
+
+			System.arraycopy(start.board, 0, board, 0, start.board.length);
+			return replay(board, start.width, start.height, log.getWords(), log.size());
+		}
+	}
+
+	// Plays count moves, packed 32 to a long, on the width x width
+	// board, which is left as the moves leave it.
+	public static int replay(int[] board, int width, long[] words, int count)
+	{
+		return replay(board, width, width, words, count);
+	}
+
+	// As replay(), on a width x height board.
+	public static int replay(int[] board, int width, int height, long[] words, int count)
+	{
+		final int size = width * height, last = size - 1;
+		final int[] next = PuzzleMoves.neighbours(width, height);
+
+		int blank = 0, wrong = 0;
+		for (int i = 0; i < size; i++)
+		{
+			if (board[i] == last) blank = i;
+			if (board[i] != i) ++wrong;
+		}
+
+		for (int w = 0, i = 0; i < count; w++)
+		{
+			long bits = words[w];
+			for (final int end = Math.min(i + 32, count); i < end; i++, bits >>>= 2)
+			{
+				if (wrong == 0) return MOVED_AFTER_SOLVE;
+
+				final int from = next[(blank << 2) | ((int) bits & 3)];
+				if (from < 0) return ILLEGAL_MOVE;
+
+				// Only the moved piece and the blank change places.
+				final int piece = board[from];
+				board[blank] = piece;
+				board[from] = last;
+				if (piece == from) ++wrong;
+				if (piece == blank) --wrong;
+				if (blank == last) ++wrong;
+				if (from == last) --wrong;
+				blank = from;
+			}
+		}
+
+		return (wrong == 0) ? VALID : NOT_SOLVED;
+	}
+
+	// Verifies submissions on threads, each with its own scratch board,
+	// filling results. Returns the number of moves replayed.
+	public static long verifyAll(final List<Submission> submissions, final int[] results, int threads)
+			throws InterruptedException
+	{
+		final AtomicInteger nextIndex = new AtomicInteger();
+		final long[] moves = new long[threads];
+		final Thread[] workers = new Thread[threads];
+
+		for (int t = 0; t < threads; t++)
+		{
+			final int id = t;
+			workers[t] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					int[] board = new int[0];
+					long replayed = 0;
+
+					int first;
+					while ((first = nextIndex.getAndAdd(CHUNK)) < submissions.size())
+					{
+						for (int i = first; i < first + CHUNK && i < submissions.size(); i++)
+						{
+							final Submission submission = submissions.get(i);
+							if (board.length < submission.start.board.length)
+								board = new int[submission.start.board.length];
+
+							results[i] = submission.verify(board);
+							replayed += submission.log.size();
+						}
+					}
+
+					moves[id] = replayed;
+				}
+			}, "ReplayVerifier-" + t);
+			workers[t].start();
+		}
+
+		long total = 0;
+		for (int t = 0; t < threads; t++)
+		{
+			workers[t].join();
+			total += moves[t];
+		}
+
+		return total;
+	}
+
+	// ====================
+	//     Submissions
+	// ====================
+
+	// Reads every submission of path.
+	public static List<Submission> read(String path) throws IOException
+	{
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 1 << 16));
+		final List<Submission> submissions = new ArrayList<Submission>();
+
+		try
+		{
+			while (true)
+			{
+				final int claimed;
+				try
+				{
+					claimed = in.readInt();
+				}
+				catch (EOFException e)
+				{
+					break;
+				}
+
+				final byte[] state = new byte[in.readUnsignedShort()];
+				in.readFully(state);
+
+				final SavedBoard start;
+				try
+				{
+					start = SavedBoard.decode(state);
+				}
+				catch (IllegalArgumentException e)
+				{
+					throw new IOException("Submission " + submissions.size() + ": " + e.getMessage());
+				}
+
+				submissions.add(new Submission(start, MoveLog.readFrom(in), claimed));
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return submissions;
+	}
+
+	// Writes count solved replays of moves random moves each, for
+	// benchmarking: a random walk back from the solved board is the
+	// start, and the walk undone is the log. The walk never returns
+	// to the solved board, so every replay is first solved by its
+	// last move and is valid.
+	private static void generate(String path, int count, int width, int moves, long seed) throws IOException
+	{
+		final Random random = new Random(seed);
+		final int size = width * width;
+		final int[] board = new int[size], walk = new int[moves], legal = new int[PuzzleMoves.COUNT];
+
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+		try
+		{
+			for (int n = 0; n < count; n++)
+			{
+				for (int i = 0; i < size; i++)
+					board[i] = i;
+
+				int blank = size - 1, last = PuzzleMoves.NONE, wrong = 0;
+				for (int m = 0; m < moves; )
+				{
+					final int move = legal[random.nextInt(PuzzleMoves.legalMoves(blank, width, legal))],
+							  from = PuzzleMoves.pieceFor(move, blank, width),
+							  piece = board[from];
+					if (move == PuzzleMoves.opposite(last)) continue;
+
+					// Pieces put out of or back into place, the blank included.
+					final int moved = wrong + ((piece == from) ? 1 : 0) - ((piece == blank) ? 1 : 0)
+							+ ((blank == size - 1) ? 1 : 0) - ((from == size - 1) ? 1 : 0);
+					if (moved == 0) continue;
+
+					board[blank] = piece;
+					board[from] = size - 1;
+					blank = from;
+					wrong = moved;
+					walk[m++] = last = move;
+				}
+
+				final MoveLog log = new MoveLog();
+				for (int m = moves - 1; m >= 0; m--)
+					log.append(PuzzleMoves.opposite(walk[m]));
+
+				final byte[] state = new SavedBoard(width, board, 0, false).encode();
+				out.writeInt(moves);
+				out.writeShort(state.length);
+				out.write(state);
+				log.writeTo(out);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple.tools;
+
+// Java packages
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sunshowerstudios.android.npuzzlesimple.MoveLog;
+import com.sunshowerstudios.android.npuzzlesimple.PuzzleMoves;
+import com.sunshowerstudios.android.npuzzlesimple.SharedBoard;
+
+/*
+ * Runs reader threads against one writer sliding pieces of a
+ * SharedBoard as fast as it can, as NPuzzleView does, in runs
+ * of one to width - 1 moves per write, taking moves back and
+ * playing them again as undo and redo do, and now and then
+ * swapping to a board of another width. Like the view, each
+ * write publishes the board and its move count together.
+ *
+ * Every snapshot must be a permutation whose parity matches
+ * its move count: each single move swaps the blank with one
+ * piece, so a torn copy of a board or count shows up as a
+ * broken permutation or as mismatched parity. The exit
+ * status is 1 if any snapshot was inconsistent.
+ *
+ * Usage: SharedBoardStress [readers] [seconds] [width]
+ *
+ * width is at most 7, the boards alternating with width + 1.
+ */
+
+public class SharedBoardStress
+{
+	public static void main(String[] args) throws InterruptedException
+	{
+		final int readers = (args.length > 0) ? Integer.parseInt(args[0]) : 4,
+				  seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 5,
+				  width = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+		if (width < 2 || width > 7)
+		{
+			System.err.println("Usage: SharedBoardStress [readers] [seconds] [width 2 to 7]");
+			System.exit(1);
+		}
+
+		final SharedBoard shared = new SharedBoard();
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicLong reads = new AtomicLong(), retries = new AtomicLong(), failures = new AtomicLong();
+		final long[] writes = new long[1];
+
+		final Thread writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				writes[0] = write(shared, width, running);
+			}
+		}, "SharedBoardStress-writer");
+
+		final Thread[] threads = new Thread[readers];
+		for (int t = 0; t < readers; t++)
+		{
+			threads[t] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					final SharedBoard.Snapshot snapshot = new SharedBoard.Snapshot();
+					long read = 0, retried = 0, failed = 0;
+
+					while (running.get())
+					{
+						retried += shared.read(snapshot);
+						if (!isConsistent(snapshot)) ++failed;
+						++read;
+					}
+
+					reads.addAndGet(read);
+					retries.addAndGet(retried);
+					failures.addAndGet(failed);
+				}
+			}, "SharedBoardStress-reader-" + t);
+		}
+
+		// Publish the first board before any reader starts.
+		final int[] board = solved(width);
+		shared.reset(board, width, 0);
+
+		writer.start();
+		for (int t = 0; t < readers; t++)
+			threads[t].start();
+
+		Thread.sleep(seconds * 1000L);
+		running.set(false);
+
+		writer.join();
+		for (int t = 0; t < readers; t++)
+			threads[t].join();
+
+		System.out.println(String.format("%d writes, %.1fM writes/s; %d reads, %.1fM reads/s, %.3f retries per read; %d inconsistent",
+				writes[0], writes[0] / (seconds * 1e6), reads.get(), reads.get() / (seconds * 1e6),
+				retries.get() / (double) Math.max(1, reads.get()), failures.get()));
+
+		if (failures.get() != 0) System.exit(1);
+	}
+
+	// Slides random runs, with undos and redos, until running is
+	// cleared, returns the number of writes.
+	private static long write(SharedBoard shared, int width, AtomicBoolean running)
+	{
+		final Random random = new Random(1);
+		final int[] legal = new int[PuzzleMoves.COUNT];
+		final MoveLog log = new MoveLog();
+		int[] board = solved(width);
+		int currentWidth = width, blank = board.length - 1, moves = 0;
+		long writes = 0;
+
+		while (running.get())
+		{
+			// Now and then, start over on a board of another width.
+			if ((writes & 0xFFFF) == 0xFFFF)
+			{
+				currentWidth = (currentWidth == width) ? width + 1 : width;
+				board = solved(currentWidth);
+				blank = board.length - 1;
+				moves = 0;
+				log.clear();
+				shared.reset(board, currentWidth, moves);
+				++writes;
+				continue;
+			}
+
+			// A quarter of writes undo the last move, another redo one.
+			final int choice = random.nextInt(4);
+			if ((choice == 0 && log.canUndo()) || (choice == 1 && log.canRedo()))
+			{
+				final int move = (choice == 0) ? PuzzleMoves.opposite(log.undo()) : log.redo(),
+						  from = PuzzleMoves.pieceFor(move, blank, currentWidth);
+
+				shared.begin();
+				board[blank] = board[from];
+				board[from] = board.length - 1;
+				shared.set(blank, board[blank]);
+				shared.set(from, board[from]);
+				blank = from;
+				moves += (choice == 0) ? -1 : 1;
+				shared.setMoves(moves);
+				shared.end();
+				++writes;
+				continue;
+			}
+
+			final int move = legal[random.nextInt(PuzzleMoves.legalMoves(blank, currentWidth, legal))],
+					  run = 1 + random.nextInt(currentWidth - 1);
+
+			shared.begin();
+			for (int i = 0; i < run; i++)
+			{
+				final int from = PuzzleMoves.pieceFor(move, blank, currentWidth);
+				if (from < 0) break;
+
+				board[blank] = board[from];
+				board[from] = board.length - 1;
+				shared.set(blank, board[blank]);
+				shared.set(from, board[from]);
+				blank = from;
+				++moves;
+				log.append(move);
+			}
+			shared.setMoves(moves);
+			shared.end();
+			++writes;
+		}
+
+		return writes;
+	}
+
+	private static int[] solved(int width)
+	{
+		final int[] board = new int[width * width];
+		for (int i = 0; i < board.length; i++)
+			board[i] = i;
+
+		return board;
+	}
+
+	// Whether or not snapshot is a permutation whose parity, counting
+	// the blank as a piece, is that of its moves from the solved board.
+	static boolean isConsistent(SharedBoard.Snapshot snapshot)
+	{
+		final int[] board = snapshot.board;
+		if (snapshot.width * snapshot.width != board.length) return false;
+
+		final long all = (board.length == 64) ? -1L : (1L << board.length) - 1;
+		long pieces = 0;
+		for (int i = 0; i < board.length; i++)
+		{
+			if (board[i] < 0 || board[i] >= board.length) return false;
+			pieces |= 1L << board[i];
+		}
+		if (pieces != all) return false;
+
+		long seen = 0;
+		int cycles = 0;
+		for (int i = 0; i < board.length; i++)
+		{
+			if (((seen >>> i) & 1) != 0) continue;
+
+			// Walk the cycle through i.
+			++cycles;
+			for (int j = i; ((seen >>> j) & 1) == 0; j = board[j])
+				seen |= 1L << j;
+		}
+
+		return (((board.length - cycles) ^ snapshot.moves) & 1) == 0;
+	}
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple.tools;
+
+// Java packages
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sunshowerstudios.android.npuzzlesimple.PatternDatabase;
+import com.sunshowerstudios.android.npuzzlesimple.PuzzleSolver;
+import com.sunshowerstudios.android.npuzzlesimple.SolutionCache;
+import com.sunshowerstudios.android.npuzzlesimple.SolverStats;
+
+/*
+ * Long running solver shared by local processes. Pattern
+ * databases are mapped once per board width and shared by
+ * every worker. Requests are queued, taken by workers in
+ * batches, and a board already queued or being solved is
+ * not solved again: later requests wait on the first one.
+ *
+ * Listens on a loopback TCP port, one request per line:
+ *
+ *   <width> <piece> <piece> ...	board in row order
+ *   STATS							queue depth, latency and search rate
+ *
+ * Each board is answered with "<length> <nodes> <micros>
+ * <moves>", a length of -1 meaning no solution was found,
+ * or "ERR <reason>". Boards wider than the largest pattern
+ * database built in reasonable time and memory, 7x7 (see
+ * PatternDatabase.isSupported()), are refused when parsed.
+ *
+ * Usage: SolveDaemon <port> <pdbDirectory> [threads] [maxNodes] [cacheDirectory]
+ *
+ * The cache directory is held until the daemon exits; other
+ * processes fail to open it meanwhile.
+ */
+
+public class SolveDaemon
+{
+	private static final char[] MOVE_NAMES = { 'U', 'D', 'R', 'L' };
+	private static final int MAX_WIDTH = PatternDatabase.MAX_WIDTH,
+							 BATCH_SIZE = 32,				// Most requests a worker takes at once.
+							 LATENCY_SAMPLES = 4096;		// Recent latencies kept for percentiles.
+	private static final long CACHE_BYTES = 1L << 30;
+
+	private final File databaseDirectory;
+	private final int threads;
+	private final long maxNodes;
+	private SolutionCache cache;
+	private final PatternDatabase[] databases = new PatternDatabase[MAX_WIDTH + 1];
+	private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<Pending>();
+	private final ConcurrentHashMap<Board, Pending> inFlight = new ConcurrentHashMap<Board, Pending>();
+	private final AtomicLong served = new AtomicLong(),
+							 deduplicated = new AtomicLong(),
+							 stopped = new AtomicLong(),	// Solves that ran out of nodes.
+							 nodes = new AtomicLong(),
+							 solveNanos = new AtomicLong(),
+							 cacheLookups = new AtomicLong(),
+							 cacheHits = new AtomicLong();
+	private final long[] latencies = new long[LATENCY_SAMPLES]; // Micros, a ring guarded by itself.
+	private long latencyCount;
+
+	public SolveDaemon(File databaseDirectory, int threads, long maxNodes)
+	{
+		this.databaseDirectory = databaseDirectory;
+		this.threads = threads;
+		this.maxNodes = maxNodes;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("Usage: SolveDaemon <port> <pdbDirectory> [threads] [maxNodes] [cacheDirectory]");
+			System.exit(1);
+		}
+
+		final int threads = (args.length > 2) ? Integer.parseInt(args[2])
+				: Runtime.getRuntime().availableProcessors();
+		final long maxNodes = (args.length > 3) ? Long.parseLong(args[3]) : Long.MAX_VALUE;
+
+		final SolveDaemon daemon = new SolveDaemon(new File(args[1]), threads, maxNodes);
+		if (args.length > 4)
+			daemon.setSolutionCache(SolutionCache.open(new File(args[4]), CACHE_BYTES));
+		daemon.serve(Integer.parseInt(args[0]));
+	}
+
+	// Setter of the cache shared by every worker, null for none.
+	public void setSolutionCache(SolutionCache cache)
+	{
+		this.cache = cache;
+	}
+
+	// Starts the workers and accepts clients until the process exits.
+	public void serve(int port) throws IOException
+	{
+		for (int i = 0; i < threads; i++)
+		{
+			final Thread worker = new Thread(new Worker(), "SolveDaemon-worker-" + i);
+			worker.setDaemon(true);
+			worker.start();
+		}
+
+		final ServerSocket server = new ServerSocket(port, 64, InetAddress.getByName("127.0.0.1"));
+		final ExecutorService clients = Executors.newCachedThreadPool();
+
+		while (true)
+		{
+			final Socket socket = server.accept();
+			clients.execute(new Runnable()
+			{
+				public void run()
+				{
+					handle(socket);
+				}
+			});
+		}
+	}
+
+	// Answers each line of one client, in order.
+	private void handle(Socket socket)
+	{
+		try
+		{
+			final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+			final Writer out = new OutputStreamWriter(socket.getOutputStream(), "US-ASCII");
+
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				line = line.trim();
+				if (line.length() == 0) continue;
+
+				out.write(line.equals("STATS") ? stats() : solve(line));
+				out.write('\n');
+				out.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			// Client went away.
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			try
+			{
+				socket.close();
+			}
+			catch (IOException e) {}
+		}
+	}
+
+	// Parses a board, joins or queues its solve, and waits for it.
+	private String solve(String line) throws InterruptedException
+	{
+		final long start = System.nanoTime();
+		final int[] board;
+		try
+		{
+			board = parseBoard(line);
+		}
+		catch (IllegalArgumentException e)
+		{
+			return "ERR " + e.getMessage();
+		}
+
+		final Board key = new Board(board);
+		Pending pending = inFlight.get(key);
+		if (pending == null)
+		{
+			final Pending created = new Pending(key);
+			pending = inFlight.putIfAbsent(key, created);
+			if (pending == null)
+			{
+				pending = created;
+				queue.add(created);
+			}
+			else
+				deduplicated.incrementAndGet();
+		}
+		else
+			deduplicated.incrementAndGet();
+
+		pending.done.await();
+		recordLatency((System.nanoTime() - start) / 1000);
+		served.incrementAndGet();
+		return pending.result;
+	}
+
+	private static int[] parseBoard(String line)
+	{
+		final String[] fields = line.split("\\s+");
+		final int width;
+		try
+		{
+			width = Integer.parseInt(fields[0]);
+			if (width < 2 || width > MAX_WIDTH || fields.length != width * width + 1)
+				throw new IllegalArgumentException("bad board size");
+
+			final int[] board = new int[width * width];
+			final boolean[] seen = new boolean[board.length];
+			for (int i = 0; i < board.length; i++)
+			{
+				board[i] = Integer.parseInt(fields[i + 1]);
+				if (board[i] < 0 || board[i] >= board.length || seen[board[i]])
+					throw new IllegalArgumentException("not a permutation");
+				seen[board[i]] = true;
+			}
+
+			return board;
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IllegalArgumentException("not a number");
+		}
+	}
+
+	// ====================
+	//       Workers
+	// ====================
+
+	// Takes batches of queued boards and solves them.
+	private class Worker implements Runnable
+	{
+		private final PuzzleSolver[] solvers = new PuzzleSolver[MAX_WIDTH + 1];
+		private final List<Pending> batch = new ArrayList<Pending>(BATCH_SIZE);
+
+		public void run()
+		{
+			while (true)
+			{
+				try
+				{
+					batch.add(queue.take());
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				queue.drainTo(batch, BATCH_SIZE - 1);
+
+				for (int i = 0; i < batch.size(); i++)
+				{
+					final Pending pending = batch.get(i);
+					try
+					{
+						pending.result = solve(pending.board.pieces);
+					}
+					catch (IOException e)
+					{
+						pending.result = "ERR " + e.getMessage();
+					}
+					catch (RuntimeException e)
+					{
+						pending.result = "ERR " + e;
+					}
+
+					// New requests for this board are solved afresh from here on.
+					inFlight.remove(pending.board);
+					pending.done.countDown();
+				}
+				batch.clear();
+			}
+		}
+
+		private String solve(int[] board) throws IOException
+		{
+			final int width = (int) Math.sqrt(board.length);
+			if (solvers[width] == null)
+			{
+				// Kept only once it has its database, so a failed open is retried.
+				final PuzzleSolver solver = new PuzzleSolver(width);
+				solver.setPatternDatabase(databaseFor(width));
+				solver.setMaxNodes(maxNodes);
+				solver.setSolutionCache(cache);
+				solvers[width] = solver;
+			}
+
+			final PuzzleSolver solver = solvers[width];
+			final long start = System.nanoTime();
+			final int[] moves = solver.solve(board);
+			final long micros = (System.nanoTime() - start) / 1000;
+			recordSolve(solver.getStats());
+
+			final StringBuilder result = new StringBuilder(32 + ((moves == null) ? 0 : moves.length));
+			result.append((moves == null) ? -1 : moves.length).append(' ')
+				  .append(solver.getNodesExpanded()).append(' ')
+				  .append(micros).append(' ');
+			if (moves != null)
+				for (int i = 0; i < moves.length; i++)
+					result.append(MOVE_NAMES[moves[i]]);
+
+			return result.toString();
+		}
+	}
+
+	// Opens the database of width once, shared by every worker.
+	private PatternDatabase databaseFor(int width) throws IOException
+	{
+		synchronized (databases)
+		{
+			if (databases[width] == null)
+				databases[width] = PatternDatabase.open(databaseDirectory, width);
+
+			return databases[width];
+		}
+	}
+
+	// ====================
+	//      Statistics
+	// ====================
+
+	private void recordSolve(SolverStats solved)
+	{
+		if (solved.getResult() == SolverStats.NODE_LIMIT) stopped.incrementAndGet();
+		nodes.addAndGet(solved.getNodesExpanded());
+		solveNanos.addAndGet(solved.getElapsedNanos());
+		cacheLookups.addAndGet(solved.getCacheLookups());
+		cacheHits.addAndGet(solved.getCacheHits());
+	}
+
+	private void recordLatency(long micros)
+	{
+		synchronized (latencies)
+		{
+			latencies[(int) (latencyCount++ % LATENCY_SAMPLES)] = micros;
+		}
+	}
+
+	// Queue depth, counters, search rate of every solve and
+	// latency percentiles of recent requests.
+	private String stats()
+	{
+		final long[] sorted;
+		synchronized (latencies)
+		{
+			sorted = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+		}
+		Arrays.sort(sorted);
+
+		return "queue=" + queue.size()
+			+ " inflight=" + inFlight.size()
+			+ " served=" + served.get()
+			+ " deduplicated=" + deduplicated.get()
+			+ " stopped=" + stopped.get()
+			+ " nodes=" + nodes.get()
+			+ " knodesps=" + ((solveNanos.get() == 0) ? 0 : nodes.get() * 1000000 / solveNanos.get())
+			+ " cachehits=" + cacheHits.get() + "/" + cacheLookups.get()
+			+ " p50us=" + percentile(sorted, 50)
+			+ " p90us=" + percentile(sorted, 90)
+			+ " p99us=" + percentile(sorted, 99)
+			+ " maxus=" + percentile(sorted, 100);
+	}
+
+	private static long percentile(long[] sorted, int percent)
+	{
+		if (sorted.length == 0) return 0;
+		return sorted[Math.min(sorted.length - 1, (sorted.length * percent) / 100)];
+	}
+
+	// A board as a map key.
+	private static final class Board
+	{
+		final int[] pieces;
+		final int hash;
+
+		Board(int[] pieces)
+		{
+			this.pieces = pieces;
+			hash = Arrays.hashCode(pieces);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other)
+		{
+			return (other instanceof Board) && Arrays.equals(pieces, ((Board) other).pieces);
+		}
+	}
+
+	// A queued board and everyone waiting on it.
+	private static final class Pending
+	{
+		final Board board;
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile String result;
+
+		Pending(Board board)
+		{
+			this.board = board;
+		}
+	}
+}
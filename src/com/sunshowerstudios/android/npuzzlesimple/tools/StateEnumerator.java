@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2011 Thomas Barrasso
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.sunshowerstudios.android.npuzzlesimple.tools;
+
+// Java packages
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.sunshowerstudios.android.npuzzlesimple.PuzzleMoves;
+
+/*
+ * Counts how many boards of a shape lie at each distance from
+ * the solved one, by a breadth first search of every board
+ * that can be solved, and prints the histogram and the boards
+ * farthest from solved.
+ *
+ * A board is ranked by where its blank is and the order of
+ * its pieces read in row order without it. Only half of those
+ * orders can be solved with the blank in one place, and the
+ * last two digits of the order's Lehmer code follow from the
+ * rest and that parity, so ranks are dense: a 3x4 board has
+ * 239,500,800 of them. Each rank has 2 bits, UNSEEN, DONE or
+ * in one of two layers whose codes swap each step, so the
+ * whole search takes 60MB for 3x4 and nothing else per board.
+ *
+ * Each layer is expanded by threads taking runs of words; a
+ * board is marked in the next layer by compare and set of
+ * its word, so each is counted once. A horizontal move
+ * leaves the order of pieces alone and only changes the
+ * blank's part of the rank.
+ *
+ * Usage: StateEnumerator [<width>x<height>|all] [threads] [hardest] [spillDirectory]
+ *
+ * "all" (the default) runs 2x3 to 2x6, 3x3 and 3x4 in turn.
+ * hardest is how many of the farthest boards to print, 10
+ * by default. With spillDirectory each layer's ranks are
+ * written, ascending as big endian ints, to
+ * "<width>x<height>-<distance>.states" there, eg. to sample
+ * boards at a distance later.
+ */
+
+public class StateEnumerator
+{
+	private static final int[][] SHAPES = { { 2, 3 }, { 2, 4 }, { 2, 5 }, { 2, 6 }, { 3, 3 }, { 3, 4 } };
+	private static final int UNSEEN = 0,
+							 DONE = 1,						// Expanded in an earlier layer.
+							 LAYER = 2;						// Code of even layers, LAYER + 1 of odd ones.
+	private static final int STATES_PER_WORD = 32,
+							 CHUNK = 256;					// Words a thread takes at a time.
+	private static final long LOW_BITS = 0x5555555555555555L;
+
+	private final int width, height, size, pieces;
+	private final int half;									// Ranks per blank position, (pieces)! / 2.
+	private final int count;
+	private final int[] neighbours;
+	private final AtomicLongArray table;
+
+	public StateEnumerator(int width, int height)
+	{
+		if (width < 2 || height < 2)
+			throw new IllegalArgumentException("No enumeration of " + width + "x" + height);
+
+		this.width = width;
+		this.height = height;
+		size = width * height;
+		pieces = size - 1;
+
+		long factorial = 1;
+		for (int i = 2; i <= pieces; i++)
+			factorial *= i;
+		if (factorial / 2 * size > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Too many boards of " + width + "x" + height);
+
+		half = (int) (factorial / 2);
+		count = half * size;
+		neighbours = PuzzleMoves.neighbours(width, height);
+		table = new AtomicLongArray((count + STATES_PER_WORD - 1) / STATES_PER_WORD);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		final String shape = (args.length > 0) ? args[0] : "all";
+		final int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors(),
+				  hardest = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+		final File spill = (args.length > 3) ? new File(args[3]) : null;
+		if (spill != null && !spill.isDirectory() && !spill.mkdirs())
+			throw new IOException("Cannot create " + spill);
+
+		if (shape.equals("all"))
+		{
+			for (int s = 0; s < SHAPES.length; s++)
+				new StateEnumerator(SHAPES[s][0], SHAPES[s][1]).run(threads, hardest, spill);
+			return;
+		}
+
+		final int x = shape.indexOf('x');
+		if (x < 0)
+		{
+			System.err.println("Usage: StateEnumerator [<width>x<height>|all] [threads] [hardest] [spillDirectory]");
+			System.exit(1);
+		}
+		new StateEnumerator(Integer.parseInt(shape.substring(0, x)), Integer.parseInt(shape.substring(x + 1)))
+				.run(threads, hardest, spill);
+	}
+
+	// Enumerates every board and prints the histogram and up to hardest
+	// of the farthest boards.
+	public void run(int threads, int hardest, File spill) throws IOException, InterruptedException
+	{
+		System.out.println(String.format("%dx%d: %d boards, %d bytes of table", width, height, count, table.length() * 8L));
+		final long start = System.nanoTime();
+
+		final int[] solved = new int[size];
+		for (int i = 0; i < size; i++)
+			solved[i] = i;
+		set(rank(solved), LAYER);
+
+		final List<Long> histogram = new ArrayList<Long>();
+		histogram.add(1L);
+		int[][] farthest = sample(LAYER, hardest);
+		if (spill != null) spill(spill, 0, LAYER);
+
+		for (int depth = 0; ; depth++)
+		{
+			final int code = LAYER + (depth & 1),
+					  next = LAYER + ((depth + 1) & 1);
+			final long found = expand(code, next, threads);
+			if (found == 0) break;
+
+			histogram.add(found);
+			farthest = sample(next, hardest);
+			if (spill != null) spill(spill, depth + 1, next);
+			System.out.println(String.format("  %3d %12d  %.1fs", depth + 1, found, (System.nanoTime() - start) / 1e9));
+		}
+
+		long total = 0;
+		System.out.println("distance count");
+		for (int d = 0; d < histogram.size(); d++)
+		{
+			System.out.println(String.format("%8d %12d", d, histogram.get(d)));
+			total += histogram.get(d);
+		}
+		System.out.println(String.format("%d boards in %.1fs, %d moves at most",
+				total, (System.nanoTime() - start) / 1e9, histogram.size() - 1));
+		if (total != count)
+			System.err.println(String.format("Reached %d boards of %d", total, count));
+
+		for (int i = 0; i < farthest.length; i++)
+		{
+			final StringBuilder line = new StringBuilder("  ");
+			for (int p = 0; p < size; p++)
+				line.append(farthest[i][p]).append((p % width == width - 1 && p != size - 1) ? " / " : " ");
+			System.out.println(line);
+		}
+	}
+
+	// ====================
+	//        Search
+	// ====================
+
+	// Marks every unseen neighbour of the boards of code with next,
+	// and the boards themselves DONE. Returns the boards marked next.
+	private long expand(final int code, final int next, int threads) throws InterruptedException
+	{
+		final AtomicInteger nextWord = new AtomicInteger();
+		final long[] found = new long[threads];
+		final Thread[] workers = new Thread[threads];
+
+		for (int t = 0; t < threads; t++)
+		{
+			final int id = t;
+			workers[t] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					final int[] board = new int[size], order = new int[pieces];
+					long marked = 0;
+
+					int first;
+					while ((first = nextWord.getAndAdd(CHUNK)) < table.length())
+					{
+						for (int w = first; w < first + CHUNK && w < table.length(); w++)
+						{
+							long matches = matching(table.get(w), code);
+							if (matches == 0) continue;
+
+							while (matches != 0)
+							{
+								final int shift = Long.numberOfTrailingZeros(matches);
+								matches &= matches - 1;
+								marked += expandBoard(w * STATES_PER_WORD + (shift >> 1), next, board, order);
+							}
+
+							// Only this thread takes boards of code out of word w.
+							long old, done;
+							do
+							{
+								old = table.get(w);
+								done = matching(old, code);
+							}
+							while (!table.compareAndSet(w, old, (old & ~(done | (done << 1))) | done));
+						}
+					}
+
+					found[id] = marked;
+				}
+			}, "StateEnumerator-" + t);
+			workers[t].start();
+		}
+
+		long total = 0;
+		for (int t = 0; t < threads; t++)
+		{
+			workers[t].join();
+			total += found[t];
+		}
+
+		return total;
+	}
+
+	// Marks the unseen neighbours of rank with next, returns how many.
+	private int expandBoard(int rank, int next, int[] board, int[] order)
+	{
+		unrank(rank, board, order);
+		final int blank = rank / half, orderRank = rank % half;
+
+		int marked = 0;
+		for (int move = 0; move < PuzzleMoves.COUNT; move++)
+		{
+			final int from = neighbours[(blank << 2) | move];
+			if (from < 0) continue;
+
+			int moved;
+			if (from / width == blank / width)
+				moved = from * half + orderRank;
+			else
+			{
+				board[blank] = board[from];
+				board[from] = pieces;
+				moved = rank(board);
+				board[from] = board[blank];
+				board[blank] = pieces;
+			}
+
+			if (set(moved, next)) ++marked;
+		}
+
+		return marked;
+	}
+
+	// Low bit of each 2 bit field of word equal to code.
+	private static long matching(long word, int code)
+	{
+		final long differs = word ^ (LOW_BITS * code);
+		return ~(differs | (differs >>> 1)) & LOW_BITS;
+	}
+
+	// Sets rank to code if it is UNSEEN, returns whether or not it was.
+	private boolean set(int rank, int code)
+	{
+		final int w = rank / STATES_PER_WORD, shift = (rank % STATES_PER_WORD) << 1;
+		long old;
+		do
+		{
+			old = table.get(w);
+			if (((old >>> shift) & 3) != UNSEEN) return false;
+		}
+		while (!table.compareAndSet(w, old, old | ((long) code << shift)));
+
+		return true;
+	}
+
+	// ====================
+	//       Ranking
+	// ====================
+
+	// Rank of board, blank position then the Lehmer code of the order of
+	// its pieces less the last two digits.
+	int rank(int[] board)
+	{
+		int rank = 0;
+		for (int i = 0, digit = 0; digit < pieces - 2; i++)
+		{
+			if (board[i] == pieces) continue;
+
+			int smaller = 0;
+			for (int j = i + 1; j < size; j++)
+				if (board[j] < board[i])
+					++smaller;
+			rank = rank * (pieces - digit) + smaller;
+			++digit;
+		}
+
+		return PuzzleMoves.findBlank(board) * half + rank;
+	}
+
+	// Inverse of rank, order is scratch space.
+	void unrank(int rank, int[] board, int[] order)
+	{
+		final int blank = rank / half;
+		int rest = rank % half, inversions = 0;
+		for (int i = pieces - 3; i >= 0; i--)
+		{
+			order[i] = rest % (pieces - i);
+			rest /= (pieces - i);
+			inversions += order[i];
+		}
+
+		// The last two digits make the inversions of a board that can be solved.
+		final int parity = ((width & 0x1) == 0) ? (height - 1 - blank / width) & 0x1 : 0;
+		order[pieces - 2] = (inversions + parity) & 0x1;
+		order[pieces - 1] = 0;
+
+		long used = 0;
+		for (int i = 0; i < pieces; i++)
+		{
+			int digit = order[i], piece = 0;
+			while (((used >>> piece) & 1) != 0 || digit-- > 0)
+				++piece;
+			order[i] = piece;
+			used |= 1L << piece;
+		}
+
+		for (int i = 0, p = 0; i < size; i++)
+			board[i] = (i == blank) ? pieces : order[p++];
+	}
+
+	// ====================
+	//        Output
+	// ====================
+
+	// Up to limit boards of code, in rank order.
+	private int[][] sample(int code, int limit)
+	{
+		final List<int[]> boards = new ArrayList<int[]>();
+		final int[] order = new int[pieces];
+		for (int w = 0; w < table.length() && boards.size() < limit; w++)
+		{
+			long matches = matching(table.get(w), code);
+			while (matches != 0 && boards.size() < limit)
+			{
+				final int[] board = new int[size];
+				unrank(w * STATES_PER_WORD + (Long.numberOfTrailingZeros(matches) >> 1), board, order);
+				boards.add(board);
+				matches &= matches - 1;
+			}
+		}
+
+		return boards.toArray(new int[boards.size()][]);
+	}
+
+	// Writes the ranks of code, the layer at distance, to directory.
+	private void spill(File directory, int distance, int code) throws IOException
+	{
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, width + "x" + height + "-" + distance + ".states")), 1 << 16));
+		try
+		{
+			for (int w = 0; w < table.length(); w++)
+			{
+				long matches = matching(table.get(w), code);
+				while (matches != 0)
+				{
+					out.writeInt(w * STATES_PER_WORD + (Long.numberOfTrailingZeros(matches) >> 1));
+					matches &= matches - 1;
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+}